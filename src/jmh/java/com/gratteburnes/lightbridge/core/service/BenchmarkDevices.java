@@ -0,0 +1,39 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.magichome.model.Device;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+// devices spread over /24s like a large installation, keyed the way the repository keys them
+public final class BenchmarkDevices {
+    private BenchmarkDevices() {
+    }
+
+    public static Map<String, Device> create(int count) {
+        Map<String, Device> byKey = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            byKey.put(key(i), device(i));
+        }
+        return byKey;
+    }
+
+    public static Device device(int i) {
+        return new Device()
+                .setIp(ip(i))
+                .setMac(String.format("ACCF23%06X", i))
+                .setName("bulb-" + i);
+    }
+
+    public static String ip(int i) {
+        return "10." + (i / 62500) + "." + (i / 250 % 250) + "." + (i % 250 + 1);
+    }
+
+    public static String name(int i) {
+        return "bulb-" + i;
+    }
+
+    public static String key(int i) {
+        return name(i) + "_" + String.format("ACCF23%06X", i);
+    }
+}
@@ -0,0 +1,56 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.lightbridge.core.model.DevicesByName;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET /devices without state: copying and serializing every device per call against the pre-serialized listing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DeviceListingBenchmark {
+    @Param({"10", "100", "1000"})
+    private int devices;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private DeviceIndex index;
+    private DeviceListingCache cache;
+
+    @Setup
+    public void setUp() {
+        Map<String, IDevice> byKey = new TreeMap<>();
+        for (int i = 0; i < devices; i++) {
+            Device device = new Device()
+                    .setIp("10.0." + (i / 250) + "." + (i % 250 + 1))
+                    .setMac(String.format("ACCF23%06X", i))
+                    .setName("bulb-" + i);
+            byKey.put(device.getName() + "_" + device.getMac(), device);
+        }
+        index = new DeviceIndex(byKey);
+        cache = new DeviceListingCache(objectMapper);
+        cache.listing(index, 1);
+    }
+
+    @Benchmark
+    public byte[] copyAndSerialize() throws Exception {
+        Map<String, IDevice> result = new HashMap<>();
+        index.getDevicesByKey().forEach((key, device) -> result.put(key, new Device(device)));
+        return objectMapper.writeValueAsBytes(new DevicesByName(result).setVersion(1L));
+    }
+
+    @Benchmark
+    public byte[] preSerialized() {
+        return cache.listing(index, 1).toJson();
+    }
+}
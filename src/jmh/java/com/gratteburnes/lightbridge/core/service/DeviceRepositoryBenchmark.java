@@ -0,0 +1,209 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.lightbridge.core.model.DevicesByName;
+import com.gratteburnes.lightbridge.core.service.persistence.DeviceMutation;
+import com.gratteburnes.lightbridge.core.service.persistence.DeviceStore;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.DeviceState;
+import com.gratteburnes.magichome.model.IDevice;
+import com.gratteburnes.magichome.service.DiscoveryService;
+import com.gratteburnes.magichome.service.MessageService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository hot paths against a stubbed LightbridgeService answering state queries at once, so only lookups,
+ * copying, caching and serialization are measured. The legacy lookups replay the split and parseInt validation that
+ * told ips from names by throwing, for comparison with the resolver.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DeviceRepositoryBenchmark {
+    @Param({"10", "1000", "10000"})
+    private int devices;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DeviceEventService deviceEventService;
+    private DeviceDispatcher dispatcher;
+    private LightbridgeService lightbridgeService;
+    private DeviceRepositoryService repository;
+
+    private String ip;
+    private String name;
+    private String upperCaseName;
+    private String mac;
+    private IDevice device;
+    private DeviceIndex index;
+    private DevicesByName listing;
+    private DevicesByName listingWithState;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, Device> persisted = BenchmarkDevices.create(devices);
+        DeviceStore store = new DeviceStore() {
+            @Override
+            public Map<String, Device> load() {
+                return persisted;
+            }
+
+            @Override
+            public void persist(List<DeviceMutation> mutations, Map<String, IDevice> snapshot) {
+            }
+
+            @Override
+            public void flush() {
+            }
+        };
+
+        deviceEventService = new DeviceEventService(meterRegistry, 1, 64, 60000);
+        DeviceChangeLog changeLog = new DeviceChangeLog(deviceEventService, 1000);
+        DeviceCircuitBreaker circuitBreaker = new DeviceCircuitBreaker(3, 10000, 300000);
+        dispatcher = new DeviceDispatcher(meterRegistry, 16, 1000, 1000);
+        DeviceState state = new DeviceState();
+        lightbridgeService = new LightbridgeService(new DiscoveryService(), new MessageService(), circuitBreaker, dispatcher,
+                new DiscoveryProber(48899, ""), new DeviceIoMetrics(meterRegistry, false), meterRegistry, 1, 16, 1, 0) {
+            @Override
+            public CompletableFuture<DeviceState> queryStateAsync(String ip, boolean joinInFlight) {
+                return CompletableFuture.completedFuture(state);
+            }
+        };
+        repository = new DeviceRepositoryService(store, lightbridgeService,
+                new StateQueryService(lightbridgeService, 5000),
+                new DeviceStateCache(changeLog, meterRegistry, TimeUnit.HOURS.toMillis(1)),
+                circuitBreaker, changeLog, new DeviceListingCache(objectMapper));
+
+        int middle = devices / 2;
+        ip = BenchmarkDevices.ip(middle);
+        name = BenchmarkDevices.name(middle);
+        device = BenchmarkDevices.device(middle);
+        upperCaseName = name.toUpperCase();
+        mac = device.getMac();
+        index = new DeviceIndex(persisted);
+        listing = new DevicesByName(repository.getDevices(false, false)).setVersion(1L);
+        // also fills the state cache for getDevicesWithCachedState
+        listingWithState = new DevicesByName(repository.getDevices(true, true)).setVersion(1L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        lightbridgeService.shutdown();
+        dispatcher.shutdown();
+        deviceEventService.shutdown();
+    }
+
+    @Benchmark
+    public IDevice lookupByIp() {
+        return repository.getDeviceFromString(ip);
+    }
+
+    @Benchmark
+    public IDevice lookupByName() {
+        return repository.getDeviceFromString(name);
+    }
+
+    @Benchmark
+    public IDevice lookupByMac() {
+        return repository.getDeviceFromString(mac);
+    }
+
+    @Benchmark
+    public IDevice lookupByNameIgnoringCase() {
+        return repository.getDeviceFromString(upperCaseName);
+    }
+
+    @Benchmark
+    public IDevice lookupUnknown() {
+        return repository.getDeviceFromString("no-such-bulb");
+    }
+
+    @Benchmark
+    public IDevice legacyLookupByIp() {
+        return legacyLookup(index, ip);
+    }
+
+    @Benchmark
+    public IDevice legacyLookupByName() {
+        return legacyLookup(index, name);
+    }
+
+    @Benchmark
+    public IDevice legacyLookupUnknown() {
+        return legacyLookup(index, "no-such-bulb");
+    }
+
+    private static IDevice legacyLookup(DeviceIndex index, String ipOrName) {
+        try {
+            legacyValidateIp(ipOrName);
+            return index.getByIp(ipOrName);
+        } catch (LegacyInvalidIpException e) {
+            return index.getByName(ipOrName);
+        }
+    }
+
+    private static void legacyValidateIp(String ip) throws LegacyInvalidIpException {
+        if (ip == null || ip.isBlank()) {
+            throw new LegacyInvalidIpException(ip);
+        }
+        String[] tokens = ip.split("\\.");
+        if (tokens.length != 4) {
+            throw new LegacyInvalidIpException(ip);
+        }
+        for (String token : tokens) {
+            try {
+                int quad = Integer.parseInt(token);
+                if (quad < 0 || quad > 254) {
+                    throw new LegacyInvalidIpException(ip);
+                }
+            } catch (NumberFormatException e) {
+                throw new LegacyInvalidIpException(ip);
+            }
+        }
+    }
+
+    private static class LegacyInvalidIpException extends Exception {
+        LegacyInvalidIpException(String address) {
+            super(String.format("'%s' is not a valid IPV4 address", address));
+        }
+    }
+
+    @Benchmark
+    public String buildDeviceKey() {
+        return repository.buildDeviceKey(device);
+    }
+
+    @Benchmark
+    public Map<String, IDevice> getDevicesWithoutState() {
+        return repository.getDevices(false, false);
+    }
+
+    @Benchmark
+    public Map<String, IDevice> getDevicesWithState() {
+        return repository.getDevices(true, false);
+    }
+
+    @Benchmark
+    public Map<String, IDevice> getDevicesWithCachedState() {
+        return repository.getDevices(true, true);
+    }
+
+    @Benchmark
+    public byte[] serializeDevicesByName() throws Exception {
+        return objectMapper.writeValueAsBytes(listing);
+    }
+
+    @Benchmark
+    public byte[] serializeDevicesByNameWithState() throws Exception {
+        return objectMapper.writeValueAsBytes(listingWithState);
+    }
+}
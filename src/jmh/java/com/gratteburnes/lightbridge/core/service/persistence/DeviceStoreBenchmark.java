@@ -0,0 +1,71 @@
+package com.gratteburnes.lightbridge.core.service.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.lightbridge.core.service.BenchmarkDevices;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Persisting one changed device: the json store rewrites every device (what its write-behind flush does, fsync
+ * included), the journal appends the mutation and compacts now and then, without fsync.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DeviceStoreBenchmark {
+    @Param({"10", "1000", "10000"})
+    private int devices;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Path directory;
+    private Path jsonFile;
+    private JournalDeviceStore journalStore;
+    private Map<String, IDevice> snapshot;
+    private List<DeviceMutation> mutations;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("device-store-benchmark");
+        snapshot = new TreeMap<>(BenchmarkDevices.create(devices));
+        Device changed = BenchmarkDevices.device(devices / 2).setName("renamed");
+        mutations = List.of(DeviceMutation.put(BenchmarkDevices.key(devices / 2), changed));
+
+        jsonFile = directory.resolve("devices.json");
+        journalStore = new JournalDeviceStore(objectMapper, new SimpleMeterRegistry(), directory.resolve("journal-devices.json").toString(),
+                directory.resolve("devices.journal").toString(), 1000, false);
+        journalStore.load();
+        journalStore.persist(List.of(DeviceMutation.clear()), snapshot);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journalStore.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void jsonSnapshot() throws IOException {
+        AtomicFileWriter.write(jsonFile, objectMapper.writeValueAsBytes(snapshot));
+    }
+
+    @Benchmark
+    public void journalAppend() throws IOException {
+        journalStore.persist(mutations, snapshot);
+    }
+}
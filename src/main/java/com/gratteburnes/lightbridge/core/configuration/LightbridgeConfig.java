@@ -1,16 +1,25 @@
 package com.gratteburnes.lightbridge.core.configuration;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.lightbridge.core.controller.ConditionalGetInterceptor;
 import com.gratteburnes.magichome.service.DiscoveryService;
 import com.gratteburnes.magichome.service.MessageService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.retry.annotation.EnableRetry;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.List;
+
 @Configuration
 @EnableRetry
+@EnableScheduling
 public class LightbridgeConfig {
     @Bean
     public ObjectMapper objectMapper() {
@@ -27,15 +36,46 @@ public class LightbridgeConfig {
         return new MessageService();
     }
 
+    // declared explicitly, otherwise @Scheduled resolves the null SockJS scheduler registered by @EnableWebSocket.
+    // More than one thread so a discovery waiting out its timeout doesn't hold up the state poll and the other jobs
     @Bean
-    public WebMvcConfigurer corsConfigurer() {
+    public ThreadPoolTaskScheduler taskScheduler(@Value("${lightbridge.scheduler.pool.size:2}") int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(Math.max(1, poolSize));
+        scheduler.setThreadNamePrefix("scheduling-");
+        return scheduler;
+    }
+
+    @Bean
+    public WebMvcConfigurer corsConfigurer(@Value("${lightbridge.cors.allowed.origins:http://localhost:3000}") String[] allowedOrigins) {
         return new WebMvcConfigurer() {
             @Override
             public void addCorsMappings(CorsRegistry registry) {
                 registry.addMapping("/lightbridge/**")
-                        .allowedOrigins("http://localhost:3000")
+                        .allowedOrigins(allowedOrigins)
                         .allowedMethods("GET", "PUT", "DELETE");
             }
         };
     }
+
+    @Bean
+    public WebMvcConfigurer conditionalGetConfigurer(ConditionalGetInterceptor conditionalGetInterceptor) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(conditionalGetInterceptor)
+                        .addPathPatterns(ConditionalGetInterceptor.DEVICES_PATH, ConditionalGetInterceptor.DEVICE_PATH);
+            }
+        };
+    }
+
+    @Bean
+    public WebMvcConfigurer preSerializedConfigurer() {
+        return new WebMvcConfigurer() {
+            @Override
+            public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+                converters.add(0, new PreSerializedMessageConverter());
+            }
+        };
+    }
 }
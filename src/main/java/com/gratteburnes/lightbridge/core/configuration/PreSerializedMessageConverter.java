@@ -0,0 +1,39 @@
+package com.gratteburnes.lightbridge.core.configuration;
+
+import com.gratteburnes.lightbridge.core.model.PreSerialized;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+
+/**
+ * Writes PreSerialized bodies straight to the response, registered ahead of the Jackson converter.
+ */
+public class PreSerializedMessageConverter extends AbstractHttpMessageConverter<PreSerialized> {
+    public PreSerializedMessageConverter() {
+        super(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return PreSerialized.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected PreSerialized readInternal(Class<? extends PreSerialized> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Pre-serialized responses can't be read", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(PreSerialized body, HttpOutputMessage outputMessage) throws IOException {
+        outputMessage.getBody().write(body.toJson());
+    }
+}
@@ -0,0 +1,27 @@
+package com.gratteburnes.lightbridge.core.configuration;
+
+import com.gratteburnes.lightbridge.core.controller.ColorStreamHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+    private final ColorStreamHandler colorStreamHandler;
+    private final String[] allowedOrigins;
+
+    public WebSocketConfig(ColorStreamHandler colorStreamHandler,
+                           @Value("${lightbridge.cors.allowed.origins:http://localhost:3000}") String[] allowedOrigins) {
+        this.colorStreamHandler = colorStreamHandler;
+        this.allowedOrigins = allowedOrigins;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(colorStreamHandler, ColorStreamHandler.PATH)
+                .setAllowedOrigins(allowedOrigins);
+    }
+}
@@ -0,0 +1,103 @@
+package com.gratteburnes.lightbridge.core.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.lightbridge.core.model.RgbWWCWColor;
+import com.gratteburnes.lightbridge.core.model.error.UnknownDeviceException;
+import com.gratteburnes.lightbridge.core.service.ColorStreamService;
+import com.gratteburnes.lightbridge.core.service.DeviceRepositoryService;
+import com.gratteburnes.lightbridge.core.service.FutureResults;
+import com.gratteburnes.magichome.model.IDevice;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Streams colors to one device, ws://.../lightbridge/v1/{ipOrName}/color/stream. Every text frame is a
+ * RgbWWCWColor, nothing is answered unless a color could not be sent.
+ */
+@Component
+@Slf4j
+public class ColorStreamHandler extends TextWebSocketHandler {
+    public static final String PATH = "/lightbridge/v1/*/color/stream";
+
+    private static final String DEVICE_ATTRIBUTE = "device";
+    private static final String REPLY_SESSION_ATTRIBUTE = "replySession";
+
+    // failures are reported from device io threads, the decorator serializes those sends
+    private static final int SEND_TIME_LIMIT_MILLIS = 5000;
+    private static final int SEND_BUFFER_BYTES = 16 * 1024;
+
+    private final DeviceRepositoryService deviceRepositoryService;
+    private final ColorStreamService colorStreamService;
+    private final ObjectMapper objectMapper;
+
+    public ColorStreamHandler(DeviceRepositoryService deviceRepositoryService, ColorStreamService colorStreamService, ObjectMapper objectMapper) {
+        this.deviceRepositoryService = deviceRepositoryService;
+        this.colorStreamService = colorStreamService;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        try {
+            session.getAttributes().put(DEVICE_ATTRIBUTE, deviceRepositoryService.findDevice(ipOrName(session.getUri())));
+            session.getAttributes().put(REPLY_SESSION_ATTRIBUTE, new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT_MILLIS, SEND_BUFFER_BYTES));
+        } catch (UnknownDeviceException | IllegalArgumentException e) {
+            log.info("Refusing color stream: {}", e.getMessage());
+            session.close(CloseStatus.POLICY_VIOLATION.withReason(e.getMessage()));
+        }
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        IDevice device = (IDevice) session.getAttributes().get(DEVICE_ATTRIBUTE);
+        if (device == null) {
+            return;
+        }
+        RgbWWCWColor color;
+        try {
+            color = objectMapper.readValue(message.getPayload(), RgbWWCWColor.class);
+        } catch (JsonProcessingException e) {
+            reportError(session, "not a color: " + e.getOriginalMessage());
+            return;
+        }
+        colorStreamService.push(device, color).whenComplete((sent, e) -> {
+            if (e != null) {
+                Throwable cause = FutureResults.unwrap(e);
+                log.warn("While streaming color to {}: {}", device, cause.getMessage());
+                reportError(session, cause.getMessage());
+            }
+        });
+    }
+
+    private void reportError(WebSocketSession session, String message) {
+        WebSocketSession replySession = (WebSocketSession) session.getAttributes().get(REPLY_SESSION_ATTRIBUTE);
+        try {
+            if (replySession != null && replySession.isOpen()) {
+                replySession.sendMessage(new TextMessage(objectMapper.writeValueAsString(Map.of("message", message))));
+            }
+        } catch (IOException e) {
+            log.debug("could not report color stream error: {}", e.getMessage());
+        }
+    }
+
+    // the device is the path segment before /color/stream
+    private static String ipOrName(URI uri) {
+        String[] segments = uri == null ? new String[0] : uri.getRawPath().split("/");
+        if (segments.length < 3) {
+            throw new IllegalArgumentException("Device ipOrName cannot be blank");
+        }
+        return URLDecoder.decode(segments[segments.length - 3], StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,75 @@
+package com.gratteburnes.lightbridge.core.controller;
+
+import com.gratteburnes.lightbridge.core.model.error.UnknownDeviceException;
+import com.gratteburnes.lightbridge.core.service.DeviceChangeLog;
+import com.gratteburnes.lightbridge.core.service.DeviceRepositoryService;
+import com.gratteburnes.magichome.model.IDevice;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * Strong ETags for GET /devices and GET /device/{ipOrName} without state, built from change log versions, which count
+ * device mutations. A matching If-None-Match is answered with 304 before the controller runs, so neither the devices
+ * nor Jackson are touched. Responses with state have no ETag: cached state expires, turns stale or falls back to an
+ * offline message without any version changing.
+ */
+@Component
+public class ConditionalGetInterceptor implements HandlerInterceptor {
+    public static final String DEVICES_PATH = "/lightbridge/v1/devices";
+    public static final String DEVICE_PATH = "/lightbridge/v1/device/*";
+
+    private final DeviceChangeLog deviceChangeLog;
+    private final DeviceRepositoryService deviceRepositoryService;
+
+    public ConditionalGetInterceptor(DeviceChangeLog deviceChangeLog, DeviceRepositoryService deviceRepositoryService) {
+        this.deviceChangeLog = deviceChangeLog;
+        this.deviceRepositoryService = deviceRepositoryService;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // the async dispatch of a listing must keep the tag computed before the listing was built
+        if (!HttpMethod.GET.matches(request.getMethod()) || request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        if (Boolean.parseBoolean(request.getParameter("state"))) {
+            return true;
+        }
+        String etag = etag(request);
+        if (etag == null) {
+            return true;
+        }
+        // sets the ETag header, and the 304 status when it matches
+        return !new ServletWebRequest(request, response).checkNotModified(etag);
+    }
+
+    private String etag(HttpServletRequest request) {
+        @SuppressWarnings("unchecked")
+        Map<String, String> pathVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String ipOrName = pathVariables == null ? null : pathVariables.get("ipOrName");
+        if (ipOrName == null) {
+            String since = request.getParameter("since");
+            if (since != null && !StringUtils.isNumeric(since)) {
+                return null;
+            }
+            return "\"" + deviceChangeLog.getVersion() + (since == null ? "" : "-" + since) + "\"";
+        }
+        IDevice device;
+        try {
+            device = deviceRepositoryService.findDevice(ipOrName);
+        } catch (UnknownDeviceException | IllegalArgumentException e) {
+            // the controller reports it
+            return null;
+        }
+        return "\"" + device.getMac() + "-" + deviceChangeLog.getDeviceVersion(device.getMac()) + "\"";
+    }
+}
@@ -1,28 +1,35 @@
 package com.gratteburnes.lightbridge.core.controller;
 
 import com.gratteburnes.lightbridge.core.controller.contract.ILightBridgeV1Contract;
+import com.gratteburnes.lightbridge.core.model.BatchCommand;
 import com.gratteburnes.lightbridge.core.model.DeviceWithState;
-import com.gratteburnes.lightbridge.core.model.DiscoveredDevice;
 import com.gratteburnes.lightbridge.core.model.DevicesByName;
+import com.gratteburnes.lightbridge.core.model.FadeRequest;
 import com.gratteburnes.lightbridge.core.model.RgbWWCWColor;
 import com.gratteburnes.lightbridge.core.model.error.DeviceConflictException;
 import com.gratteburnes.lightbridge.core.model.error.UnknownDeviceException;
+import com.gratteburnes.lightbridge.core.service.DeviceCommandService;
+import com.gratteburnes.lightbridge.core.service.DeviceEventService;
 import com.gratteburnes.lightbridge.core.service.DeviceRepositoryService;
+import com.gratteburnes.lightbridge.core.service.DiscoveryStreamService;
+import com.gratteburnes.lightbridge.core.service.FadeService;
 import com.gratteburnes.lightbridge.core.service.LightbridgeService;
-import com.gratteburnes.magichome.model.DeviceState;
 import com.gratteburnes.magichome.model.IDevice;
-import com.gratteburnes.magichome.model.error.DeviceException;
 import com.gratteburnes.magichome.model.error.DiscoveryException;
-import com.gratteburnes.magichome.model.error.MessageException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/lightbridge/v1/")
@@ -30,63 +37,63 @@ import java.util.TreeMap;
 public class LightbridgeController implements ILightBridgeV1Contract {
     private final LightbridgeService lightbridgeService;
     private final DeviceRepositoryService deviceRepositoryService;
+    private final DeviceCommandService deviceCommandService;
+    private final FadeService fadeService;
+    private final DeviceEventService deviceEventService;
+    private final DiscoveryStreamService discoveryStreamService;
 
-    public LightbridgeController(LightbridgeService lightbridgeService, DeviceRepositoryService deviceRepositoryService, @Value("${lightbridge.persistence.location}") String deviceFile) throws DiscoveryException, IOException, DeviceConflictException {
+    public LightbridgeController(LightbridgeService lightbridgeService, DeviceRepositoryService deviceRepositoryService, DeviceCommandService deviceCommandService, FadeService fadeService, DeviceEventService deviceEventService, DiscoveryStreamService discoveryStreamService, @Value("${lightbridge.persistence.location}") String deviceFile) throws DiscoveryException, IOException, DeviceConflictException {
         this.lightbridgeService = lightbridgeService;
         this.deviceRepositoryService = deviceRepositoryService;
+        this.deviceCommandService = deviceCommandService;
+        this.fadeService = fadeService;
+        this.deviceEventService = deviceEventService;
+        this.discoveryStreamService = discoveryStreamService;
     }
 
     @PutMapping("/discover")
-    public DevicesByName discoverDevices() throws DiscoveryException {
+    public DevicesByName discoverDevices() throws DiscoveryException, IOException {
         Map<String, IDevice> discovered = lightbridgeService.discover();
-        Map<String, IDevice> result = new TreeMap<>();
-        discovered.keySet().forEach((key -> {
-            IDevice device = discovered.get(key);
-            boolean added = false;
-            String message = "";
-            try {
-                deviceRepositoryService.addDevice(device);
-                added = true;
-            } catch (DeviceConflictException e) {
-                message = e.getMessage();
-                log.warn("While discovering devices: {}", message);
-            } catch (IOException e) {
-                message = e.getMessage();
-                log.error("While discovering devices: {}", message, e);
-            }
-            result.put(deviceRepositoryService.buildDeviceKey(device), new DiscoveredDevice(device, added, message));
-        }));
-        return new DevicesByName(result);
+        return new DevicesByName(deviceRepositoryService.reconcile(discovered != null ? discovered : Map.of()));
+    }
+
+    @PutMapping(value = "/discover/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter discoverDevicesStream(@RequestParam(value = "expected", required = false) Integer expected) {
+        return discoveryStreamService.stream(expected);
     }
 
     @PutMapping("/{ipOrName}/on")
-    public DeviceWithState on(@PathVariable("ipOrName") String ipOrName) throws MessageException, DeviceException {
-        IDevice device = deviceRepositoryService.getDevice(ipOrName, false, false);
-        if (lightbridgeService.turnDeviceOn(device.getIp())) {
-            return new DeviceWithState(device).setDeviceState(lightbridgeService.queryState(device.getIp()));
-        } else {
-            throw new DeviceException(ipOrName + " could not be turned on");
-        }
+    public CompletableFuture<DeviceWithState> on(@PathVariable("ipOrName") String ipOrName,
+                                                @RequestParam(value = "verify", required = false, defaultValue = "false") boolean verify) throws UnknownDeviceException {
+        return deviceCommandService.turnOn(ipOrName, verify);
     }
 
     @PutMapping("/{ipOrName}/off")
-    public DeviceWithState off(@PathVariable("ipOrName") String ipOrName) throws MessageException, DeviceException {
-        IDevice device = deviceRepositoryService.getDevice(ipOrName, false, false);
-        if (lightbridgeService.turnDeviceOff(device.getIp())) {
-            return new DeviceWithState(device).setDeviceState(lightbridgeService.queryState(device.getIp()));
-        } else {
-            throw new DeviceException(ipOrName + " could not be turned off");
-        }
+    public CompletableFuture<DeviceWithState> off(@PathVariable("ipOrName") String ipOrName,
+                                                 @RequestParam(value = "verify", required = false, defaultValue = "false") boolean verify) throws UnknownDeviceException {
+        return deviceCommandService.turnOff(ipOrName, verify);
     }
 
     @PutMapping("/{ipOrName}/color")
-    public DeviceWithState color(@PathVariable("ipOrName") String ipOrName, @NotNull @RequestBody RgbWWCWColor rgbWWCWColor) throws MessageException, DeviceException {
-        IDevice device = deviceRepositoryService.getDevice(ipOrName, false, false);
-        if (lightbridgeService.changeDeviceColor(rgbWWCWColor.getRed(), rgbWWCWColor.getGreen(), rgbWWCWColor.getBlue(), rgbWWCWColor.getWarmWhite(), rgbWWCWColor.getCoolWhite(), device.getIp())) {
-            return new DeviceWithState(device).setDeviceState(lightbridgeService.queryState(device.getIp()));
-        } else {
-            throw new DeviceException(ipOrName + " color could not be changed");
-        }
+    public CompletableFuture<DeviceWithState> color(@PathVariable("ipOrName") String ipOrName, @NotNull @RequestBody RgbWWCWColor rgbWWCWColor,
+                                                   @RequestParam(value = "verify", required = false, defaultValue = "false") boolean verify) throws UnknownDeviceException {
+        return deviceCommandService.changeColor(ipOrName, rgbWWCWColor, verify);
+    }
+
+    @PutMapping("/batch")
+    public CompletableFuture<DevicesByName> batch(@NotNull @RequestBody List<BatchCommand> commands,
+                                                  @RequestParam(value = "verify", required = false, defaultValue = "false") boolean verify) {
+        return deviceCommandService.execute(commands, verify).thenApply(DevicesByName::new);
+    }
+
+    @PutMapping("/fade")
+    public DevicesByName fade(@NotNull @RequestBody FadeRequest fadeRequest) {
+        return new DevicesByName(fadeService.start(fadeRequest));
+    }
+
+    @DeleteMapping("/fade/{ipOrName}")
+    public String stopFade(@NotBlank @PathVariable("ipOrName") String ipOrName) throws UnknownDeviceException {
+        return fadeService.cancel(ipOrName) ? ipOrName + " stopped fading" : ipOrName + " was not fading";
     }
 
     @PutMapping("/device/rename/{ipOrName}/{newName}")
@@ -96,10 +103,10 @@ public class LightbridgeController implements ILightBridgeV1Contract {
     }
 
     @GetMapping("/device/{ipOrName}")
-    public IDevice getDevice(@NotBlank @PathVariable("ipOrName") String ipOrName,
-                             @RequestParam(value = "state", required = false, defaultValue = "false") boolean includeState,
-                             @RequestParam(value = "cache", required = false, defaultValue = "false") boolean useCache) throws UnknownDeviceException {
-        return deviceRepositoryService.getDevice(ipOrName, includeState, useCache);
+    public CompletableFuture<IDevice> getDevice(@NotBlank @PathVariable("ipOrName") String ipOrName,
+                                                @RequestParam(value = "state", required = false, defaultValue = "false") boolean includeState,
+                                                @RequestParam(value = "cache", required = false, defaultValue = "false") boolean useCache) throws UnknownDeviceException {
+        return deviceRepositoryService.getDeviceAsync(ipOrName, includeState, useCache);
     }
 
     @DeleteMapping("/device/{ipOrName}")
@@ -108,18 +115,26 @@ public class LightbridgeController implements ILightBridgeV1Contract {
     }
 
     @GetMapping("/devices")
-    public DevicesByName getDevices(@RequestParam(value = "state", required = false, defaultValue = "false") boolean includeState,
-                                           @RequestParam(value = "cache", required = false, defaultValue = "false") boolean useCache) {
-        return new DevicesByName(deviceRepositoryService.getDevices(includeState, useCache));
+    public CompletableFuture<DevicesByName> getDevices(@RequestParam(value = "state", required = false, defaultValue = "false") boolean includeState,
+                                                       @RequestParam(value = "cache", required = false, defaultValue = "false") boolean useCache,
+                                                       @RequestParam(value = "since", required = false) Long since) {
+        return deviceRepositoryService.listDevicesAsync(includeState, useCache, since);
     }
 
     @GetMapping("/{ipOrName}/state")
-    public @NotNull DeviceWithState getDeviceState(@NotBlank @PathVariable("ipOrName") String ipOrName) throws MessageException, DeviceException {
-        IDevice device = deviceRepositoryService.getDevice(ipOrName, true, false);
-        DeviceState state = device instanceof DeviceWithState ?
-                ((DeviceWithState)device).getDeviceState() :
-                lightbridgeService.queryState(device.getIp());
-        return new DeviceWithState(device)
-                .setDeviceState(state);
+    public @NotNull CompletableFuture<DeviceWithState> getDeviceState(@NotBlank @PathVariable("ipOrName") String ipOrName) throws UnknownDeviceException {
+        return deviceRepositoryService.queryDeviceState(ipOrName);
+    }
+
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events(@RequestParam(value = "device", required = false) List<String> devices) throws UnknownDeviceException {
+        // filter by mac so the subscription survives renames
+        Set<String> macs = new HashSet<>();
+        if (devices != null) {
+            for (String ipOrName : devices) {
+                macs.add(deviceRepositoryService.findDevice(ipOrName).getMac());
+            }
+        }
+        return deviceEventService.subscribe(macs);
     }
 }
@@ -1,14 +1,16 @@
 package com.gratteburnes.lightbridge.core.controller.contract;
 
+import com.gratteburnes.lightbridge.core.model.BatchCommand;
+import com.gratteburnes.lightbridge.core.model.DeviceEvent;
 import com.gratteburnes.lightbridge.core.model.DeviceWithState;
+import com.gratteburnes.lightbridge.core.model.DiscoveredDevice;
 import com.gratteburnes.lightbridge.core.model.DevicesByName;
+import com.gratteburnes.lightbridge.core.model.FadeRequest;
 import com.gratteburnes.lightbridge.core.model.RgbWWCWColor;
 import com.gratteburnes.lightbridge.core.model.error.UnknownDeviceException;
 import com.gratteburnes.magichome.model.DeviceState;
 import com.gratteburnes.magichome.model.IDevice;
-import com.gratteburnes.magichome.model.error.DeviceException;
 import com.gratteburnes.magichome.model.error.DiscoveryException;
-import com.gratteburnes.magichome.model.error.MessageException;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.enums.ParameterIn;
@@ -18,44 +20,86 @@ import io.swagger.v3.oas.annotations.parameters.RequestBody;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RequestMapping("/lightbridge/v1/")
 @Tag(name = "lightbridge", description = "Magic home device bridge controller")
 public interface ILightBridgeV1Contract {
+    // commands answer without asking the device by default, the answer is only what the command should have done
+    String VERIFY_DESCRIPTION = "query the device state before answering, defaults to false: without it the state " +
+            "answered is the one the command is expected to produce, built from the last known state, not one read " +
+            "from the device, and is flagged unconfirmed. The device is queried in the background: the cache takes the " +
+            "state it reads back, or forgets the expected one if the device can't be reached";
+
     @PutMapping("/discover")
-    @Operation(summary = "Triggers device discovery", description = "trigger device discovery", tags = {"lightbridge"})
+    @Operation(summary = "Triggers device discovery", description = "trigger device discovery, known devices are matched by mac and get their new IP address, devices that did not answer are reported as not seen", tags = {"lightbridge"})
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successful operation",
                     content = @Content(schema = @Schema(implementation = DevicesByName.class)))})
-    DevicesByName discoverDevices() throws DiscoveryException;
+    DevicesByName discoverDevices() throws DiscoveryException, IOException;
+
+    @PutMapping(value = "/discover/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Streams device discovery", description = "trigger device discovery and receive a device event as soon as each device answers and is added or updated, then a done event with the number of devices found. Known devices are matched by mac like /discover, new ones are named after the model they report", tags = {"lightbridge"})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successful operation",
+                    content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE, schema = @Schema(implementation = DiscoveredDevice.class)))})
+    SseEmitter discoverDevicesStream(@Parameter(in = ParameterIn.QUERY, name = "expected", description = "stop as soon as this many devices answered instead of waiting for the discovery timeout", required = false) Integer expected);
 
     @PutMapping("/{ipOrName}/on")
-    @Operation(summary = "Turns device on", description = "turn device on by device name or IP address", tags = {"lightbridge"})
+    @Operation(summary = "Turns device on", description = "turn device on by device name or IP address, answers the expected state unless verify is set", tags = {"lightbridge"})
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successful operation",
                     content = @Content(schema = @Schema(implementation = DeviceWithState.class)))})
-    DeviceWithState on(@Parameter(in = ParameterIn.PATH, name = "ipOrName", description = "Device name or IP address", required = true) String ipOrName) throws MessageException, DeviceException;
+    CompletableFuture<DeviceWithState> on(@Parameter(in = ParameterIn.PATH, name = "ipOrName", description = "Device name or IP address", required = true) String ipOrName,
+                                          @Parameter(in = ParameterIn.QUERY, name = "verify", description = VERIFY_DESCRIPTION, required = false) boolean verify) throws UnknownDeviceException;
 
     @PutMapping("/{ipOrName}/off")
-    @Operation(summary = "Turns device off", description = "turn device off by device name or IP address", tags = {"lightbridge"})
+    @Operation(summary = "Turns device off", description = "turn device off by device name or IP address, answers the expected state unless verify is set", tags = {"lightbridge"})
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successful operation",
                     content = @Content(schema = @Schema(implementation = DeviceWithState.class)))})
-    DeviceWithState off(@Parameter(in = ParameterIn.PATH, name = "ipOrName", description = "Device name or IP address", required = true) String ipOrName) throws MessageException, DeviceException;
+    CompletableFuture<DeviceWithState> off(@Parameter(in = ParameterIn.PATH, name = "ipOrName", description = "Device name or IP address", required = true) String ipOrName,
+                                           @Parameter(in = ParameterIn.QUERY, name = "verify", description = VERIFY_DESCRIPTION, required = false) boolean verify) throws UnknownDeviceException;
 
     @PutMapping("/{ipOrName}/color")
-    @Operation(summary = "Sets device color", description = "set device color by device name or IP address", tags = {"lightbridge"})
+    @Operation(summary = "Sets device color", description = "set device color by device name or IP address, answers the expected state unless verify is set", tags = {"lightbridge"})
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successful operation",
                     content = @Content(schema = @Schema(implementation = DeviceWithState.class)))})
-    DeviceWithState color(@Parameter(in = ParameterIn.PATH, name = "ipOrName", description = "Device name or IP address", required = true) String ipOrName,
-                          @RequestBody(description = "RGB WW CW color", required = true) RgbWWCWColor rgbWWCWColor) throws MessageException, DeviceException;
+    CompletableFuture<DeviceWithState> color(@Parameter(in = ParameterIn.PATH, name = "ipOrName", description = "Device name or IP address", required = true) String ipOrName,
+                                             @RequestBody(description = "RGB WW CW color", required = true) RgbWWCWColor rgbWWCWColor,
+                                             @Parameter(in = ParameterIn.QUERY, name = "verify", description = VERIFY_DESCRIPTION, required = false) boolean verify) throws UnknownDeviceException;
+
+    @PutMapping("/batch")
+    @Operation(summary = "Runs commands on many devices", description = "turn devices on, off or set their color concurrently, results are keyed by target and hold the expected states unless verify is set", tags = {"lightbridge"})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successful operation",
+                    content = @Content(schema = @Schema(implementation = DevicesByName.class)))})
+    CompletableFuture<DevicesByName> batch(@RequestBody(description = "Commands, at most one per device, naming a device twice (by name and ip included) answers 400", required = true) List<BatchCommand> commands,
+                                           @Parameter(in = ParameterIn.QUERY, name = "verify", description = VERIFY_DESCRIPTION, required = false) boolean verify);
+
+    @PutMapping("/fade")
+    @Operation(summary = "Fades devices to a color", description = "fade devices to a color over a duration, replacing fades already running on them, results are keyed by target", tags = {"lightbridge"})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successful operation",
+                    content = @Content(schema = @Schema(implementation = DevicesByName.class)))})
+    DevicesByName fade(@RequestBody(description = "Targets, color and duration", required = true) FadeRequest fadeRequest);
+
+    @DeleteMapping("/fade/{ipOrName}")
+    @Operation(summary = "Stops fading device", description = "stop the fade running on a device by device name or IP address, the device keeps its current color", tags = {"lightbridge"})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successful operation",
+                    content = @Content(schema = @Schema(implementation = String.class)))})
+    String stopFade(@Parameter(in = ParameterIn.PATH, name = "ipOrName", description = "Device name or IP address", required = true) String ipOrName) throws UnknownDeviceException;
 
     @PutMapping("/device/rename/{ipOrName}/{newName}")
     @Operation(summary = "Renames device", description = "rename device by device name or IP address", tags = {"lightbridge"})
@@ -70,9 +114,9 @@ public interface ILightBridgeV1Contract {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successful operation",
                     content = @Content(schema = @Schema(implementation = IDevice.class)))})
-    IDevice getDevice(@Parameter(in = ParameterIn.PATH, name = "ipOrName", description = "Device name or IP address", required = true) String ipOrName,
-                      @Parameter(in = ParameterIn.QUERY, name = "state", description = "include device state, defaults to false", required = false) boolean includeState,
-                      @Parameter(in = ParameterIn.QUERY, name = "cache", description = "use device cache, defaults to false", required = false) boolean useCache) throws UnknownDeviceException;
+    CompletableFuture<IDevice> getDevice(@Parameter(in = ParameterIn.PATH, name = "ipOrName", description = "Device name or IP address", required = true) String ipOrName,
+                                         @Parameter(in = ParameterIn.QUERY, name = "state", description = "include device state, defaults to false", required = false) boolean includeState,
+                                         @Parameter(in = ParameterIn.QUERY, name = "cache", description = "use device cache, defaults to false", required = false) boolean useCache) throws UnknownDeviceException;
 
     @DeleteMapping("/device/{ipOrName}")
     @Operation(summary = "Deletes device record", description = "delete device record", tags = {"lightbridge"})
@@ -86,13 +130,21 @@ public interface ILightBridgeV1Contract {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successful operation",
                     content = @Content(schema = @Schema(implementation = DevicesByName.class)))})
-    DevicesByName getDevices(@Parameter(in = ParameterIn.QUERY, name = "state", description = "include device state, defaults to false", required = false) boolean includeState,
-                             @Parameter(in = ParameterIn.QUERY, name = "cache", description = "use device cache, defaults to false", required = false) boolean useCache);
+    CompletableFuture<DevicesByName> getDevices(@Parameter(in = ParameterIn.QUERY, name = "state", description = "include device state, defaults to false", required = false) boolean includeState,
+                                                @Parameter(in = ParameterIn.QUERY, name = "cache", description = "use device cache, defaults to false", required = false) boolean useCache,
+                                                @Parameter(in = ParameterIn.QUERY, name = "since", description = "version of a previous listing, only devices changed or removed after it are listed", required = false) Long since);
 
     @GetMapping("/{ipOrName}/state")
     @Operation(summary = "Gets device state", description = "gets device state by device name or IP address", tags = {"lightbridge"})
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successful operation",
                     content = @Content(schema = @Schema(implementation = DeviceWithState.class)))})
-    DeviceWithState getDeviceState(@Parameter(in = ParameterIn.PATH, name = "ipOrName", description = "Device name or IP address", required = true) String ipOrName) throws MessageException, DeviceException;
+    CompletableFuture<DeviceWithState> getDeviceState(@Parameter(in = ParameterIn.PATH, name = "ipOrName", description = "Device name or IP address", required = true) String ipOrName) throws UnknownDeviceException;
+
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Streams device events", description = "server-sent events for device state changes and added, removed, renamed or cleared devices", tags = {"lightbridge"})
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successful operation",
+                    content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE, schema = @Schema(implementation = DeviceEvent.class)))})
+    SseEmitter events(@Parameter(in = ParameterIn.QUERY, name = "device", description = "device names or IP addresses to receive events for, defaults to every device", required = false) List<String> devices) throws UnknownDeviceException;
 }
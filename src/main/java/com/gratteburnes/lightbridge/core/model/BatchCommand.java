@@ -0,0 +1,18 @@
+package com.gratteburnes.lightbridge.core.model;
+
+import lombok.Data;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+
+@Data
+public class BatchCommand {
+    public enum Action {ON, OFF, COLOR}
+
+    @NotBlank
+    private String target;
+    @NotNull
+    private Action action;
+    // only used by COLOR
+    private RgbWWCWColor color;
+}
@@ -0,0 +1,25 @@
+package com.gratteburnes.lightbridge.core.model;
+
+import com.gratteburnes.magichome.model.IDeviceState;
+
+public class CachedDeviceState {
+    private final IDeviceState deviceState;
+    private final long timestamp;
+
+    public CachedDeviceState(IDeviceState deviceState, long timestamp) {
+        this.deviceState = deviceState;
+        this.timestamp = timestamp;
+    }
+
+    public IDeviceState getDeviceState() {
+        return deviceState;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getAge() {
+        return System.currentTimeMillis() - timestamp;
+    }
+}
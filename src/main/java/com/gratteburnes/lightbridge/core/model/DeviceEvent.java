@@ -0,0 +1,45 @@
+package com.gratteburnes.lightbridge.core.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.gratteburnes.magichome.model.IDevice;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DeviceEvent {
+    public enum Type {STATE, ADDED, UPDATED, REMOVED, RENAMED, CLEARED}
+
+    private final Type type;
+    // null for CLEARED, which concerns every device
+    private final IDevice device;
+    private final String previousName;
+    // repository version this change produced, see GET /devices?since=
+    private final long version;
+    private final long timestamp;
+
+    public DeviceEvent(Type type, IDevice device, String previousName, long version) {
+        this.type = type;
+        this.device = device;
+        this.previousName = previousName;
+        this.version = version;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public IDevice getDevice() {
+        return device;
+    }
+
+    public String getPreviousName() {
+        return previousName;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
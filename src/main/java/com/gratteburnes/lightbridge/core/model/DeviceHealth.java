@@ -0,0 +1,48 @@
+package com.gratteburnes.lightbridge.core.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DeviceHealth {
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String ip;
+    private final State state;
+    private final int consecutiveFailures;
+    private final Long offlineSince;
+    private final Long nextProbe;
+    private final String lastError;
+
+    public DeviceHealth(String ip, State state, int consecutiveFailures, Long offlineSince, Long nextProbe, String lastError) {
+        this.ip = ip;
+        this.state = state;
+        this.consecutiveFailures = consecutiveFailures;
+        this.offlineSince = offlineSince;
+        this.nextProbe = nextProbe;
+        this.lastError = lastError;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public Long getOfflineSince() {
+        return offlineSince;
+    }
+
+    public Long getNextProbe() {
+        return nextProbe;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+}
@@ -1,6 +1,7 @@
 package com.gratteburnes.lightbridge.core.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.gratteburnes.magichome.model.Device;
 import com.gratteburnes.magichome.model.IDevice;
 
@@ -12,6 +13,10 @@ public class DeviceWithMessage implements IDevice {
 
     private String message = "";
 
+    // only set while the device's circuit is open
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private DeviceHealth health;
+
     public DeviceWithMessage(IDevice source) {
         this.device = new Device(source);
     }
@@ -30,6 +35,15 @@ public class DeviceWithMessage implements IDevice {
         return this;
     }
 
+    public DeviceHealth getHealth() {
+        return health;
+    }
+
+    public DeviceWithMessage setHealth(DeviceHealth health) {
+        this.health = health;
+        return this;
+    }
+
     public Device getDevice() {
         return device;
     }
@@ -1,6 +1,7 @@
 package com.gratteburnes.lightbridge.core.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.gratteburnes.magichome.model.*;
 
 import javax.validation.constraints.NotNull;
@@ -9,7 +10,19 @@ public class DeviceWithState implements IDevice, IDeviceState {
     @NotNull
     private Device device;
 
-    private DeviceState deviceState;
+    private IDeviceState deviceState;
+
+    private Long stateTimestamp;
+
+    private boolean stale;
+
+    // set while the state is the one a command should have produced and the device did not confirm it yet
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private boolean unconfirmed;
+
+    // only set while the device's circuit is open
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private DeviceHealth health;
 
     public DeviceWithState(@NotNull IDevice idevice) {
         this.device = new Device(idevice);
@@ -24,15 +37,51 @@ public class DeviceWithState implements IDevice, IDeviceState {
         return this;
     }
 
-    public DeviceState getDeviceState() {
+    public IDeviceState getDeviceState() {
         return deviceState;
     }
 
-    public DeviceWithState setDeviceState(DeviceState deviceState) {
+    public DeviceWithState setDeviceState(IDeviceState deviceState) {
         this.deviceState = deviceState;
         return this;
     }
 
+    public Long getStateTimestamp() {
+        return stateTimestamp;
+    }
+
+    public DeviceWithState setStateTimestamp(Long stateTimestamp) {
+        this.stateTimestamp = stateTimestamp;
+        return this;
+    }
+
+    public boolean isStale() {
+        return stale;
+    }
+
+    public DeviceWithState setStale(boolean stale) {
+        this.stale = stale;
+        return this;
+    }
+
+    public boolean isUnconfirmed() {
+        return unconfirmed;
+    }
+
+    public DeviceWithState setUnconfirmed(boolean unconfirmed) {
+        this.unconfirmed = unconfirmed;
+        return this;
+    }
+
+    public DeviceHealth getHealth() {
+        return health;
+    }
+
+    public DeviceWithState setHealth(DeviceHealth health) {
+        this.health = health;
+        return this;
+    }
+
     @Override
     @JsonIgnore
     public String getIp() {
@@ -1,14 +1,25 @@
 package com.gratteburnes.lightbridge.core.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.gratteburnes.magichome.model.IDevice;
 import lombok.Data;
+import lombok.experimental.Accessors;
 
+import java.util.List;
 import java.util.Map;
 
 @Data
+@Accessors(chain = true)
 public class DevicesByName {
     private long timestamp;
     private Map<String, IDevice> devices;
+    // pass as since to list only what changed afterwards
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long version;
+    // true when devices only holds the devices that changed since the requested version
+    private boolean delta;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<String> removed;
 
     public DevicesByName(Map<String, IDevice> devices) {
         timestamp = System.currentTimeMillis();
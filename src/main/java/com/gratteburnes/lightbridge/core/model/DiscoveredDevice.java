@@ -6,6 +6,9 @@ import com.gratteburnes.magichome.model.IDevice;
 public class DiscoveredDevice extends DeviceWithMessage {
     private boolean added;
 
+    // false when the device did not answer the last discovery
+    private boolean seen = true;
+
     public DiscoveredDevice(IDevice device, boolean added) {
         super(device);
         setAdded(added);
@@ -24,4 +27,13 @@ public class DiscoveredDevice extends DeviceWithMessage {
         this.added = added;
         return this;
     }
+
+    public boolean isSeen() {
+        return seen;
+    }
+
+    public DiscoveredDevice setSeen(boolean seen) {
+        this.seen = seen;
+        return this;
+    }
 }
@@ -0,0 +1,36 @@
+package com.gratteburnes.lightbridge.core.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.gratteburnes.magichome.model.IDevice;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of probing every discovery target at once, devices are merged by mac.
+ */
+@Data
+@Accessors(chain = true)
+public class DiscoverySweep {
+    private long timestamp;
+    private long elapsedMillis;
+    // by mac
+    private Map<String, IDevice> devices;
+    private List<Target> targets;
+
+    @Data
+    @Accessors(chain = true)
+    public static class Target {
+        // as configured, a broadcast address or an interface name
+        private String target;
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private String address;
+        // replies heard on this target, including devices another target heard first
+        private int answered;
+        private long elapsedMillis;
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private String error;
+    }
+}
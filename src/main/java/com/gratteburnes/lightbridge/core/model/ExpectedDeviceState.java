@@ -0,0 +1,116 @@
+package com.gratteburnes.lightbridge.core.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.gratteburnes.magichome.model.DeviceMode;
+import com.gratteburnes.magichome.model.DeviceOptions;
+import com.gratteburnes.magichome.model.DevicePattern;
+import com.gratteburnes.magichome.model.IDeviceState;
+
+/**
+ * State a device is expected to be in after a command was sent to it, until the device confirms it.
+ * What the command did not touch comes from the last known state, when there is one.
+ */
+public class ExpectedDeviceState implements IDeviceState {
+    private final IDeviceState lastKnown;
+    private final Boolean on;
+    private final RgbWWCWColor color;
+
+    private ExpectedDeviceState(IDeviceState lastKnown, Boolean on, RgbWWCWColor color) {
+        // flatten so that repeated unconfirmed commands don't chain expected states
+        if (lastKnown instanceof ExpectedDeviceState) {
+            ExpectedDeviceState previous = (ExpectedDeviceState) lastKnown;
+            lastKnown = previous.lastKnown;
+            on = on != null ? on : previous.on;
+            color = color != null ? color : previous.color;
+        }
+        this.lastKnown = lastKnown;
+        this.on = on;
+        this.color = color;
+    }
+
+    public static ExpectedDeviceState power(IDeviceState lastKnown, boolean on) {
+        return new ExpectedDeviceState(lastKnown, on, null);
+    }
+
+    public static ExpectedDeviceState color(IDeviceState lastKnown, RgbWWCWColor color) {
+        return new ExpectedDeviceState(lastKnown, null, color);
+    }
+
+    // not part of the state in the response, DeviceWithState flags it as unconfirmed instead
+    @JsonIgnore
+    public boolean isExpected() {
+        return true;
+    }
+
+    // true when the actual state contradicts what the command set
+    public boolean isContradictedBy(IDeviceState actual) {
+        if (on != null && on != actual.isOn()) {
+            return true;
+        }
+        return color != null && (color.getRed() != actual.getRed()
+                || color.getGreen() != actual.getGreen()
+                || color.getBlue() != actual.getBlue()
+                || color.getWarmWhite() != actual.getWarmWhite()
+                || color.getCoolWhite() != actual.getCoolWhite());
+    }
+
+    @Override
+    public DeviceOptions getOptions() {
+        return lastKnown != null ? lastKnown.getOptions() : null;
+    }
+
+    @Override
+    public int getType() {
+        return lastKnown != null ? lastKnown.getType() : 0;
+    }
+
+    @Override
+    public boolean isOn() {
+        return on != null ? on : lastKnown != null && lastKnown.isOn();
+    }
+
+    @Override
+    public DeviceMode getMode() {
+        return lastKnown != null ? lastKnown.getMode() : null;
+    }
+
+    @Override
+    public DevicePattern getPattern() {
+        return lastKnown != null ? lastKnown.getPattern() : null;
+    }
+
+    @Override
+    public int getIaPatternValue() {
+        return lastKnown != null ? lastKnown.getIaPatternValue() : 0;
+    }
+
+    @Override
+    public int getSpeed() {
+        return lastKnown != null ? lastKnown.getSpeed() : 0;
+    }
+
+    @Override
+    public int getRed() {
+        return color != null ? color.getRed() : lastKnown != null ? lastKnown.getRed() : 0;
+    }
+
+    @Override
+    public int getGreen() {
+        return color != null ? color.getGreen() : lastKnown != null ? lastKnown.getGreen() : 0;
+    }
+
+    @Override
+    public int getBlue() {
+        return color != null ? color.getBlue() : lastKnown != null ? lastKnown.getBlue() : 0;
+    }
+
+    @Override
+    public int getWarmWhite() {
+        return color != null ? color.getWarmWhite() : lastKnown != null ? lastKnown.getWarmWhite() : 0;
+    }
+
+    @Override
+    public int getCoolWhite() {
+        return color != null ? color.getCoolWhite() : lastKnown != null ? lastKnown.getCoolWhite() : 0;
+    }
+}
@@ -0,0 +1,19 @@
+package com.gratteburnes.lightbridge.core.model;
+
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+@Data
+public class FadeRequest {
+    // device names or ip addresses
+    @NotEmpty
+    private List<String> targets;
+    @NotNull
+    private RgbWWCWColor color;
+    @Min(0)
+    private long durationMillis;
+}
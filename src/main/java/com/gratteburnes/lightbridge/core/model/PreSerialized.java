@@ -0,0 +1,8 @@
+package com.gratteburnes.lightbridge.core.model;
+
+/**
+ * Response bodies that already hold their JSON, written as is instead of going through Jackson.
+ */
+public interface PreSerialized {
+    byte[] toJson();
+}
@@ -0,0 +1,18 @@
+package com.gratteburnes.lightbridge.core.model;
+
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+
+public class SerializedDevice extends Device implements PreSerialized {
+    private final byte[] json;
+
+    public SerializedDevice(IDevice device, byte[] json) {
+        super(device);
+        this.json = json;
+    }
+
+    @Override
+    public byte[] toJson() {
+        return json;
+    }
+}
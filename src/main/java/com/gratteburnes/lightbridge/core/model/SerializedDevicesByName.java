@@ -0,0 +1,33 @@
+package com.gratteburnes.lightbridge.core.model;
+
+import com.gratteburnes.magichome.model.IDevice;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Full listing without state whose devices object was serialized once per repository snapshot, only the envelope
+ * is written per request.
+ */
+public class SerializedDevicesByName extends DevicesByName implements PreSerialized {
+    private final byte[] devicesJson;
+
+    public SerializedDevicesByName(Map<String, IDevice> devices, byte[] devicesJson, long version) {
+        super(devices);
+        this.devicesJson = devicesJson;
+        setVersion(version);
+    }
+
+    // same fields as Jackson writes for DevicesByName
+    @Override
+    public byte[] toJson() {
+        byte[] head = ("{\"timestamp\":" + getTimestamp() + ",\"devices\":").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = (",\"version\":" + getVersion() + ",\"delta\":false}").getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream json = new ByteArrayOutputStream(head.length + devicesJson.length + tail.length);
+        json.writeBytes(head);
+        json.writeBytes(devicesJson);
+        json.writeBytes(tail);
+        return json.toByteArray();
+    }
+}
@@ -0,0 +1,12 @@
+package com.gratteburnes.lightbridge.core.model.error;
+
+import com.gratteburnes.magichome.model.error.DeviceException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class DeviceBusyException extends DeviceException {
+    public DeviceBusyException(String ip, int queued) {
+        super(String.format("%s already has %d requests queued, try again later", ip, queued));
+    }
+}
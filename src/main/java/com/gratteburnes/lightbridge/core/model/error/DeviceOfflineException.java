@@ -0,0 +1,23 @@
+package com.gratteburnes.lightbridge.core.model.error;
+
+import com.gratteburnes.lightbridge.core.model.DeviceHealth;
+import com.gratteburnes.magichome.model.error.DeviceException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.time.Instant;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class DeviceOfflineException extends DeviceException {
+    private final transient DeviceHealth health;
+
+    public DeviceOfflineException(DeviceHealth health) {
+        super(String.format("%s offline since %s, next probe at %s", health.getIp(),
+                Instant.ofEpochMilli(health.getOfflineSince()), Instant.ofEpochMilli(health.getNextProbe())));
+        this.health = health;
+    }
+
+    public DeviceHealth getHealth() {
+        return health;
+    }
+}
@@ -0,0 +1,11 @@
+package com.gratteburnes.lightbridge.core.model.error;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidCommandException extends IllegalArgumentException {
+    public InvalidCommandException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,137 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DeviceWithState;
+import com.gratteburnes.lightbridge.core.model.ExpectedDeviceState;
+import com.gratteburnes.lightbridge.core.model.RgbWWCWColor;
+import com.gratteburnes.magichome.model.IDevice;
+import com.gratteburnes.magichome.model.error.DeviceException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends colors to devices latest-wins: at most one color change is in flight per device and only the most recent
+ * color pushed meanwhile is sent after it, intermediate ones are dropped. No state query follows a send, the cache
+ * holds the expected state instead. A device's slot is dropped once nothing is left to send.
+ */
+@Service
+@Slf4j
+public class ColorStreamService {
+    private final LightbridgeService lightbridgeService;
+    private final DeviceStateCache deviceStateCache;
+    private final Map<String, Slot> slotsByIp = new ConcurrentHashMap<>();
+    private final Counter sentFrames;
+    private final Counter supersededFrames;
+
+    public ColorStreamService(LightbridgeService lightbridgeService, DeviceStateCache deviceStateCache, MeterRegistry meterRegistry) {
+        this.lightbridgeService = lightbridgeService;
+        this.deviceStateCache = deviceStateCache;
+        this.sentFrames = Counter.builder("lightbridge.color.stream.frames")
+                .description("Streamed colors sent to devices or dropped for a newer one")
+                .tag("outcome", "sent")
+                .register(meterRegistry);
+        this.supersededFrames = Counter.builder("lightbridge.color.stream.frames")
+                .description("Streamed colors sent to devices or dropped for a newer one")
+                .tag("outcome", "superseded")
+                .register(meterRegistry);
+    }
+
+    // completes with true once the color was sent, false when a newer color replaced it before it was sent
+    public CompletableFuture<Boolean> push(IDevice device, RgbWWCWColor color) {
+        if (device == null || color == null) {
+            throw new IllegalArgumentException("Device and color cannot be null");
+        }
+        if (device.getIp() == null) {
+            return CompletableFuture.failedFuture(new DeviceException(device.getName() + " has no known ip"));
+        }
+        while (true) {
+            CompletableFuture<Boolean> result = slotsByIp.computeIfAbsent(device.getIp(), Slot::new).push(device, color);
+            if (result != null) {
+                return result;
+            }
+            // drained and dropped between the lookup and the push, its replacement takes the color
+            Thread.onSpinWait();
+        }
+    }
+
+    int getSlotCount() {
+        return slotsByIp.size();
+    }
+
+    private class Slot {
+        private final String ip;
+        private IDevice device;
+        private RgbWWCWColor pending;
+        private CompletableFuture<Boolean> pendingResult;
+        private boolean sending;
+        private boolean retired;
+
+        Slot(String ip) {
+            this.ip = ip;
+        }
+
+        // null once the slot was dropped
+        CompletableFuture<Boolean> push(IDevice device, RgbWWCWColor color) {
+            CompletableFuture<Boolean> result = new CompletableFuture<>();
+            CompletableFuture<Boolean> superseded;
+            boolean idle;
+            synchronized (this) {
+                if (retired) {
+                    return null;
+                }
+                superseded = pendingResult;
+                this.device = device;
+                pending = color;
+                pendingResult = result;
+                idle = !sending;
+                sending = true;
+            }
+            if (superseded != null) {
+                supersededFrames.increment();
+                superseded.complete(false);
+            }
+            if (idle) {
+                sendNext();
+            }
+            return result;
+        }
+
+        private void sendNext() {
+            IDevice target;
+            RgbWWCWColor color;
+            CompletableFuture<Boolean> result;
+            synchronized (this) {
+                if (pending == null) {
+                    sending = false;
+                    retired = true;
+                    slotsByIp.remove(ip, this);
+                    return;
+                }
+                target = device;
+                color = pending;
+                result = pendingResult;
+                pending = null;
+                pendingResult = null;
+            }
+            lightbridgeService.changeDeviceColorAsync(color.getRed(), color.getGreen(), color.getBlue(), color.getWarmWhite(), color.getCoolWhite(), target.getIp())
+                    .whenComplete((done, e) -> {
+                        if (e != null) {
+                            result.completeExceptionally(e);
+                        } else if (!done) {
+                            result.completeExceptionally(new DeviceException(target.getIp() + " color could not be changed"));
+                        } else {
+                            sentFrames.increment();
+                            DeviceWithState lastKnown = deviceStateCache.getAnyAge(target);
+                            deviceStateCache.put(target, ExpectedDeviceState.color(lastKnown != null ? lastKnown.getDeviceState() : null, color));
+                            result.complete(true);
+                        }
+                        sendNext();
+                    });
+        }
+    }
+}
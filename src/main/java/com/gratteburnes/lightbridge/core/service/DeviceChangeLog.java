@@ -0,0 +1,128 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DeviceEvent;
+import com.gratteburnes.lightbridge.core.model.DeviceWithState;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Numbers every device mutation and state change so listings can answer only what changed after a version. Removed
+ * keys are kept as tombstones up to a bound, asking for changes older than the oldest one answers a full listing.
+ * Every recorded change is published as a device event, in version order.
+ */
+@Service
+@Slf4j
+public class DeviceChangeLog {
+    private final DeviceEventService deviceEventService;
+    private final int maxTombstones;
+
+    // seeded from the clock so versions keep increasing across restarts and old clients get a full listing
+    private final long epoch = System.currentTimeMillis();
+    private long version = epoch;
+    private long oldestAnswerable = epoch;
+    private final Map<String, Long> versionByMac = new HashMap<>();
+    // insertion ordered, oldest first
+    private final LinkedHashMap<String, Long> tombstones = new LinkedHashMap<>();
+
+    public DeviceChangeLog(DeviceEventService deviceEventService,
+                           @Value("${lightbridge.changes.tombstones.max:1000}") int maxTombstones) {
+        if (maxTombstones < 1) {
+            throw new IllegalArgumentException("Max tombstones must be positive");
+        }
+        this.deviceEventService = deviceEventService;
+        this.maxTombstones = maxTombstones;
+    }
+
+    public synchronized void recordState(DeviceWithState device) {
+        publish(DeviceEvent.Type.STATE, device, null, changed(device.getMac()));
+    }
+
+    public synchronized void recordAdded(String key, IDevice device) {
+        long recorded = changed(device.getMac());
+        tombstones.remove(key);
+        publish(DeviceEvent.Type.ADDED, new Device(device), null, recorded);
+    }
+
+    // same key, different record, e.g. a new ip
+    public synchronized void recordUpdated(IDevice device) {
+        publish(DeviceEvent.Type.UPDATED, new Device(device), null, changed(device.getMac()));
+    }
+
+    public synchronized void recordRemoved(String key, IDevice device) {
+        long recorded = ++version;
+        versionByMac.remove(device.getMac());
+        bury(key, recorded);
+        publish(DeviceEvent.Type.REMOVED, new Device(device), null, recorded);
+    }
+
+    public synchronized void recordRenamed(String oldKey, String newKey, IDevice device, String previousName) {
+        long recorded = changed(device.getMac());
+        tombstones.remove(newKey);
+        bury(oldKey, recorded);
+        publish(DeviceEvent.Type.RENAMED, new Device(device), previousName, recorded);
+    }
+
+    // nothing before a clear can be answered incrementally
+    public synchronized void recordCleared() {
+        long recorded = ++version;
+        versionByMac.clear();
+        tombstones.clear();
+        oldestAnswerable = recorded;
+        publish(DeviceEvent.Type.CLEARED, null, null, recorded);
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    // false when since is older than what is retained or newer than anything recorded, e.g. from before a restart
+    public synchronized boolean canAnswer(long since) {
+        return since >= oldestAnswerable && since <= version;
+    }
+
+    public synchronized boolean changedSince(String mac, long since) {
+        Long changed = versionByMac.get(mac);
+        return changed != null && changed > since;
+    }
+
+    // devices that did not change since startup share the startup version
+    public synchronized long getDeviceVersion(String mac) {
+        return versionByMac.getOrDefault(mac, epoch);
+    }
+
+    public synchronized List<String> removedSince(long since) {
+        List<String> removed = new ArrayList<>();
+        tombstones.forEach((key, removedAt) -> {
+            if (removedAt > since) {
+                removed.add(key);
+            }
+        });
+        return removed;
+    }
+
+    // under the lock that numbered the event so subscribers get events in version order, publishing only queues them
+    private void publish(DeviceEvent.Type type, IDevice device, String previousName, long recorded) {
+        deviceEventService.publish(new DeviceEvent(type, device, previousName, recorded));
+    }
+
+    private long changed(String mac) {
+        versionByMac.put(mac, ++version);
+        return version;
+    }
+
+    private void bury(String key, long removedAt) {
+        // re-inserting moves the key to the end so the order stays by version
+        tombstones.remove(key);
+        tombstones.put(key, removedAt);
+        if (tombstones.size() > maxTombstones) {
+            Iterator<Map.Entry<String, Long>> oldest = tombstones.entrySet().iterator();
+            oldestAnswerable = oldest.next().getValue();
+            oldest.remove();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DeviceHealth;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks consecutive failures per device ip. Once a device reaches the threshold its circuit opens and calls fail
+ * fast, a single probe is let through whenever the backoff elapsed and the backoff doubles for every failed probe.
+ */
+@Service
+@Slf4j
+public class DeviceCircuitBreaker {
+    // only devices that failed at least once have an entry
+    private final Map<String, Circuit> circuitsByIp = new ConcurrentHashMap<>();
+    private final int failureThreshold;
+    private final long openMillis;
+    private final long maxOpenMillis;
+
+    public DeviceCircuitBreaker(@Value("${lightbridge.breaker.failure.threshold:3}") int failureThreshold,
+                                @Value("${lightbridge.breaker.open.millis:10000}") long openMillis,
+                                @Value("${lightbridge.breaker.open.max.millis:300000}") long maxOpenMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Breaker failure threshold must be positive");
+        }
+        if (openMillis < 1 || maxOpenMillis < openMillis) {
+            throw new IllegalArgumentException("Breaker open duration must be positive and not exceed its maximum");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.maxOpenMillis = maxOpenMillis;
+    }
+
+    // false when the call should fail fast. A device without a known ip never got to fail, it has no circuit
+    public boolean allow(String ip) {
+        Circuit circuit = ip == null ? null : circuitsByIp.get(ip);
+        return circuit == null || circuit.allow(System.currentTimeMillis());
+    }
+
+    public void recordSuccess(String ip) {
+        Circuit circuit = circuitsByIp.remove(ip);
+        if (circuit != null && circuit.getHealth().getState() != DeviceHealth.State.CLOSED) {
+            log.info("{} is reachable again, closing its circuit", ip);
+        }
+    }
+
+    public void recordFailure(String ip, Throwable cause) {
+        circuitsByIp.computeIfAbsent(ip, Circuit::new).recordFailure(System.currentTimeMillis(), cause);
+    }
+
+    public DeviceHealth getHealth(String ip) {
+        Circuit circuit = ip == null ? null : circuitsByIp.get(ip);
+        return circuit == null ? new DeviceHealth(ip, DeviceHealth.State.CLOSED, 0, null, null, null) : circuit.getHealth();
+    }
+
+    // null while the circuit is closed so healthy devices don't carry it in responses
+    public DeviceHealth getHealthIfTripped(String ip) {
+        Circuit circuit = ip == null ? null : circuitsByIp.get(ip);
+        DeviceHealth health = circuit == null ? null : circuit.getHealth();
+        return health == null || health.getState() == DeviceHealth.State.CLOSED ? null : health;
+    }
+
+    public Map<String, DeviceHealth> getTripped() {
+        Map<String, DeviceHealth> result = new TreeMap<>();
+        circuitsByIp.forEach((ip, circuit) -> {
+            DeviceHealth health = circuit.getHealth();
+            if (health.getState() != DeviceHealth.State.CLOSED) {
+                result.put(ip, health);
+            }
+        });
+        return result;
+    }
+
+    private class Circuit {
+        private final String ip;
+        private DeviceHealth.State state = DeviceHealth.State.CLOSED;
+        private int consecutiveFailures;
+        private long offlineSince;
+        private long nextProbe;
+        private long currentOpenMillis;
+        private String lastError;
+
+        Circuit(String ip) {
+            this.ip = ip;
+        }
+
+        synchronized boolean allow(long now) {
+            if (state == DeviceHealth.State.CLOSED) {
+                return true;
+            }
+            if (now < nextProbe) {
+                return false;
+            }
+            // a probe that never reported back doesn't keep the device quarantined forever, the next caller probes again
+            state = DeviceHealth.State.HALF_OPEN;
+            nextProbe = now + currentOpenMillis;
+            log.debug("probing {}", ip);
+            return true;
+        }
+
+        synchronized void recordFailure(long now, Throwable cause) {
+            consecutiveFailures++;
+            lastError = cause == null ? null : cause.getMessage();
+            if (state == DeviceHealth.State.HALF_OPEN) {
+                currentOpenMillis = Math.min(currentOpenMillis * 2, maxOpenMillis);
+            } else if (state == DeviceHealth.State.CLOSED && consecutiveFailures >= failureThreshold) {
+                offlineSince = now;
+                currentOpenMillis = openMillis;
+                log.warn("{} failed {} times in a row, failing fast for {} ms", ip, consecutiveFailures, currentOpenMillis);
+            } else {
+                return;
+            }
+            state = DeviceHealth.State.OPEN;
+            nextProbe = now + currentOpenMillis;
+        }
+
+        synchronized DeviceHealth getHealth() {
+            boolean closed = state == DeviceHealth.State.CLOSED;
+            return new DeviceHealth(ip, state, consecutiveFailures,
+                    closed ? null : offlineSince, closed ? null : nextProbe, lastError);
+        }
+    }
+}
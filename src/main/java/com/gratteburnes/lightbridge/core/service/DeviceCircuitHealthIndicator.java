@@ -0,0 +1,29 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DeviceHealth;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Lists devices whose circuit is open under /actuator/health, an offline bulb doesn't take the bridge down.
+ */
+@Component("deviceCircuits")
+public class DeviceCircuitHealthIndicator implements HealthIndicator {
+    private final DeviceCircuitBreaker circuitBreaker;
+
+    public DeviceCircuitHealthIndicator(DeviceCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public Health health() {
+        Map<String, DeviceHealth> tripped = circuitBreaker.getTripped();
+        return Health.up()
+                .withDetail("offline", tripped.size())
+                .withDetail("devices", tripped)
+                .build();
+    }
+}
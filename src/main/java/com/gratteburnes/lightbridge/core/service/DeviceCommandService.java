@@ -0,0 +1,180 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.BatchCommand;
+import com.gratteburnes.lightbridge.core.model.DeviceWithMessage;
+import com.gratteburnes.lightbridge.core.model.DeviceWithState;
+import com.gratteburnes.lightbridge.core.model.ExpectedDeviceState;
+import com.gratteburnes.lightbridge.core.model.RgbWWCWColor;
+import com.gratteburnes.lightbridge.core.model.error.InvalidCommandException;
+import com.gratteburnes.lightbridge.core.model.error.UnknownDeviceException;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import com.gratteburnes.magichome.model.IDeviceState;
+import com.gratteburnes.magichome.model.error.DeviceException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+@Service
+@Slf4j
+public class DeviceCommandService {
+    private final LightbridgeService lightbridgeService;
+    private final DeviceRepositoryService deviceRepositoryService;
+    private final DeviceStateCache deviceStateCache;
+    private final DeviceCircuitBreaker circuitBreaker;
+    private final long batchTimeoutMillis;
+
+    public DeviceCommandService(LightbridgeService lightbridgeService,
+                                DeviceRepositoryService deviceRepositoryService,
+                                DeviceStateCache deviceStateCache,
+                                DeviceCircuitBreaker circuitBreaker,
+                                @Value("${lightbridge.batch.timeout.millis:10000}") long batchTimeoutMillis) {
+        if (batchTimeoutMillis < 1) {
+            throw new IllegalArgumentException("Batch timeout must be positive");
+        }
+        this.lightbridgeService = lightbridgeService;
+        this.deviceRepositoryService = deviceRepositoryService;
+        this.deviceStateCache = deviceStateCache;
+        this.circuitBreaker = circuitBreaker;
+        this.batchTimeoutMillis = batchTimeoutMillis;
+    }
+
+    public CompletableFuture<DeviceWithState> turnOn(String ipOrName, boolean verify) throws UnknownDeviceException {
+        return turnOn(deviceRepositoryService.findDevice(ipOrName), verify);
+    }
+
+    public CompletableFuture<DeviceWithState> turnOff(String ipOrName, boolean verify) throws UnknownDeviceException {
+        return turnOff(deviceRepositoryService.findDevice(ipOrName), verify);
+    }
+
+    public CompletableFuture<DeviceWithState> changeColor(String ipOrName, RgbWWCWColor color, boolean verify) throws UnknownDeviceException {
+        if (color == null) {
+            throw new IllegalArgumentException("Color cannot be null");
+        }
+        return changeColor(deviceRepositoryService.findDevice(ipOrName), color, verify);
+    }
+
+    private CompletableFuture<DeviceWithState> turnOn(IDevice device, boolean verify) {
+        return lightbridgeService.turnDeviceOnAsync(device.getIp())
+                .thenCompose(done -> done ?
+                        resultingState(device, verify, lastKnown -> ExpectedDeviceState.power(lastKnown, true)) :
+                        CompletableFuture.failedFuture(new DeviceException(device.getName() + " could not be turned on")));
+    }
+
+    private CompletableFuture<DeviceWithState> turnOff(IDevice device, boolean verify) {
+        return lightbridgeService.turnDeviceOffAsync(device.getIp())
+                .thenCompose(done -> done ?
+                        resultingState(device, verify, lastKnown -> ExpectedDeviceState.power(lastKnown, false)) :
+                        CompletableFuture.failedFuture(new DeviceException(device.getName() + " could not be turned off")));
+    }
+
+    private CompletableFuture<DeviceWithState> changeColor(IDevice device, RgbWWCWColor color, boolean verify) {
+        if (color == null) {
+            throw new IllegalArgumentException("Color cannot be null");
+        }
+        return lightbridgeService.changeDeviceColorAsync(color.getRed(), color.getGreen(), color.getBlue(), color.getWarmWhite(), color.getCoolWhite(), device.getIp())
+                .thenCompose(done -> done ?
+                        resultingState(device, verify, lastKnown -> ExpectedDeviceState.color(lastKnown, color)) :
+                        CompletableFuture.failedFuture(new DeviceException(device.getName() + " color could not be changed")));
+    }
+
+    // verified results query the device before answering, otherwise the expected state is answered and checked in the background
+    private CompletableFuture<DeviceWithState> resultingState(IDevice device, boolean verify, Function<IDeviceState, ExpectedDeviceState> expectation) {
+        if (verify) {
+            return lightbridgeService.queryStateAsync(device.getIp(), false)
+                    .thenApply(state -> deviceStateCache.put(device, state));
+        }
+        DeviceWithState lastKnown = deviceStateCache.getAnyAge(device);
+        ExpectedDeviceState expected = expectation.apply(lastKnown != null ? lastKnown.getDeviceState() : null);
+        DeviceWithState result = deviceStateCache.put(device, expected);
+        lightbridgeService.queryStateAsync(device.getIp(), false)
+                .whenComplete((actual, e) -> {
+                    if (e != null) {
+                        // the guess is not served any longer than the device can't be asked about it
+                        log.warn("While verifying state of {}: {}", device, FutureResults.unwrap(e).getMessage());
+                        deviceStateCache.invalidate(device, expected);
+                        return;
+                    }
+                    if (expected.isContradictedBy(actual)) {
+                        log.warn("{} did not end up in the expected state, correcting cache", device);
+                    }
+                    deviceStateCache.put(device, actual);
+                });
+        return CompletableFuture.completedFuture(result);
+    }
+
+    /**
+     * Runs every command concurrently, results are keyed by target and commands still running at the deadline are
+     * reported as timed out. Targets are resolved before anything is sent: unknown ones are reported in the results,
+     * a blank target or two targets naming the same device reject the whole batch.
+     */
+    public CompletableFuture<Map<String, IDevice>> execute(List<BatchCommand> commands, boolean verify) {
+        if (commands == null) {
+            throw new InvalidCommandException("Commands cannot be null");
+        }
+        Map<String, BatchCommand> commandsByTarget = new LinkedHashMap<>();
+        Map<String, IDevice> devicesByTarget = new HashMap<>();
+        Map<String, String> targetsByMac = new HashMap<>();
+        Map<String, String> unknownTargets = new HashMap<>();
+        for (BatchCommand command : commands) {
+            if (command == null || StringUtils.isBlank(command.getTarget())) {
+                throw new InvalidCommandException("Command target cannot be blank");
+            }
+            String target = command.getTarget();
+            if (commandsByTarget.put(target, command) != null) {
+                throw new InvalidCommandException(target + " is targeted more than once");
+            }
+            try {
+                IDevice device = deviceRepositoryService.findDevice(target);
+                String other = targetsByMac.putIfAbsent(device.getMac(), target);
+                if (other != null) {
+                    throw new InvalidCommandException(target + " and " + other + " are the same device");
+                }
+                devicesByTarget.put(target, device);
+            } catch (UnknownDeviceException e) {
+                unknownTargets.put(target, e.getMessage());
+            }
+        }
+
+        Map<String, CompletableFuture<IDevice>> pending = new LinkedHashMap<>();
+        commandsByTarget.forEach((target, command) -> pending.put(target, devicesByTarget.containsKey(target) ?
+                execute(devicesByTarget.get(target), command, verify) :
+                CompletableFuture.completedFuture(new DeviceWithMessage(new Device().setName(target), unknownTargets.get(target)))));
+        return FutureResults.allWithin(pending, batchTimeoutMillis,
+                target -> new DeviceWithMessage(new Device().setName(target), "command timed out after " + batchTimeoutMillis + " ms"),
+                lightbridgeService.getDeviceIoExecutor());
+    }
+
+    private CompletableFuture<IDevice> execute(IDevice device, BatchCommand command, boolean verify) {
+        CompletableFuture<DeviceWithState> result;
+        try {
+            if (command.getAction() == null) {
+                throw new IllegalArgumentException("Action cannot be null");
+            }
+            result = switch (command.getAction()) {
+                case ON -> turnOn(device, verify);
+                case OFF -> turnOff(device, verify);
+                case COLOR -> changeColor(device, command.getColor(), verify);
+            };
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+
+        return result.handle((state, e) -> {
+            if (e != null) {
+                Throwable cause = FutureResults.unwrap(e);
+                log.error("While executing {} on {}: {}", command.getAction(), command.getTarget(), cause.getMessage(), cause);
+                return new DeviceWithMessage(device, cause.getMessage()).setHealth(circuitBreaker.getHealthIfTripped(device.getIp()));
+            }
+            return state;
+        });
+    }
+}
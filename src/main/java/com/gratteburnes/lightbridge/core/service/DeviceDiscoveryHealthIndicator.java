@@ -0,0 +1,40 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DiscoverySweep;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Lists devices, by mac, that did not answer the last discovery, and how each target fared in the last sweep, under
+ * /actuator/health.
+ */
+@Component("deviceDiscovery")
+public class DeviceDiscoveryHealthIndicator implements HealthIndicator {
+    private final DeviceRepositoryService deviceRepositoryService;
+    private final DiscoveryProber prober;
+
+    public DeviceDiscoveryHealthIndicator(DeviceRepositoryService deviceRepositoryService, DiscoveryProber prober) {
+        this.deviceRepositoryService = deviceRepositoryService;
+        this.prober = prober;
+    }
+
+    @Override
+    public Health health() {
+        Map<String, String> notSeenSince = new TreeMap<>();
+        deviceRepositoryService.getNotSeenSince().forEach((mac, since) -> notSeenSince.put(mac, Instant.ofEpochMilli(since).toString()));
+        Health.Builder health = Health.up()
+                .withDetail("notSeen", notSeenSince.size())
+                .withDetail("devices", notSeenSince);
+        DiscoverySweep lastSweep = prober.getLastSweep();
+        if (lastSweep != null) {
+            health.withDetail("lastSweep", Instant.ofEpochMilli(lastSweep.getTimestamp()).toString())
+                    .withDetail("targets", lastSweep.getTargets());
+        }
+        return health.build();
+    }
+}
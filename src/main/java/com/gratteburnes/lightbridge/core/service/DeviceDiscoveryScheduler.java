@@ -0,0 +1,36 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.magichome.model.IDevice;
+import com.gratteburnes.magichome.model.error.DiscoveryException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Map;
+
+@Component
+@Slf4j
+@ConditionalOnProperty(value = "lightbridge.discovery.schedule.enabled", matchIfMissing = true)
+public class DeviceDiscoveryScheduler {
+    private final LightbridgeService lightbridgeService;
+    private final DeviceRepositoryService deviceRepositoryService;
+
+    public DeviceDiscoveryScheduler(LightbridgeService lightbridgeService, DeviceRepositoryService deviceRepositoryService) {
+        this.lightbridgeService = lightbridgeService;
+        this.deviceRepositoryService = deviceRepositoryService;
+    }
+
+    // picks up new devices and dhcp address changes, DeviceStartupService runs the first discovery
+    @Scheduled(initialDelayString = "${lightbridge.discovery.interval.millis:300000}",
+            fixedDelayString = "${lightbridge.discovery.interval.millis:300000}")
+    public void discover() {
+        try {
+            Map<String, IDevice> discovered = lightbridgeService.discover();
+            deviceRepositoryService.reconcile(discovered != null ? discovered : Map.of());
+        } catch (DiscoveryException | IOException e) {
+            log.error("While running scheduled discovery: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.error.DeviceBusyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Gives every device ip a serial mailbox: tasks for one device start in submission order, each one only after the
+ * previous one completed, and are paced by a token bucket. Different devices don't wait on each other. A mailbox left
+ * idle with a full bucket is dropped along with its gauge, the next request for the ip starts a new one.
+ */
+@Service
+@Slf4j
+public class DeviceDispatcher {
+    private final Map<String, Mailbox> mailboxesByIp = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService pacingScheduler;
+    private final MeterRegistry meterRegistry;
+    private final Counter rejected;
+    private final int capacity;
+    private final double ratePerSecond;
+    private final double burst;
+
+    public DeviceDispatcher(MeterRegistry meterRegistry,
+                            @Value("${lightbridge.device.mailbox.capacity:16}") int capacity,
+                            @Value("${lightbridge.device.rate.per.second:10}") double ratePerSecond,
+                            @Value("${lightbridge.device.rate.burst:5}") double burst) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Device mailbox capacity must be positive");
+        }
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Device rate must be positive and burst at least 1");
+        }
+        this.meterRegistry = meterRegistry;
+        this.capacity = capacity;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.rejected = Counter.builder("lightbridge.device.mailbox.rejected")
+                .description("Device requests rejected because the device mailbox was full")
+                .register(meterRegistry);
+        this.pacingScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("device-pacing-"));
+    }
+
+    // the task starts once every earlier task for the ip completed and a token is available, fails with DeviceBusyException when the mailbox is full
+    public <T> CompletableFuture<T> submit(String ip, Supplier<CompletableFuture<T>> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        while (true) {
+            Mailbox mailbox = mailboxesByIp.computeIfAbsent(ip, Mailbox::new);
+            switch (mailbox.offer(() -> start(task, result, mailbox))) {
+                case ACCEPTED:
+                    return result;
+                case FULL:
+                    rejected.increment();
+                    log.warn("mailbox of {} is full, rejecting request", ip);
+                    return CompletableFuture.failedFuture(new DeviceBusyException(ip, capacity));
+                default:
+                    // retired between the lookup and the offer, its replacement takes the task
+                    Thread.onSpinWait();
+            }
+        }
+    }
+
+    int getMailboxCount() {
+        return mailboxesByIp.size();
+    }
+
+    public int getQueued(String ip) {
+        Mailbox mailbox = mailboxesByIp.get(ip);
+        return mailbox == null ? 0 : mailbox.depth();
+    }
+
+    private <T> void start(Supplier<CompletableFuture<T>> task, CompletableFuture<T> result, Mailbox mailbox) {
+        CompletableFuture<T> running;
+        try {
+            running = task.get();
+        } catch (RuntimeException e) {
+            running = CompletableFuture.failedFuture(e);
+        }
+        running.whenComplete((value, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(value);
+            }
+            mailbox.drain();
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pacingScheduler.shutdownNow();
+    }
+
+    private enum Offer {
+        ACCEPTED, FULL, RETIRED
+    }
+
+    private class Mailbox {
+        private final String ip;
+        private final Queue<Runnable> queue = new ArrayDeque<>();
+        private final Gauge gauge;
+        private boolean running;
+        private boolean retired;
+        private boolean retireScheduled;
+        private double tokens = burst;
+        private long refilledAt = System.nanoTime();
+
+        Mailbox(String ip) {
+            this.ip = ip;
+            this.gauge = Gauge.builder("lightbridge.device.mailbox.depth", this, Mailbox::depth)
+                    .description("Device requests waiting for their turn")
+                    .tag("ip", ip)
+                    .register(meterRegistry);
+        }
+
+        synchronized int depth() {
+            return queue.size();
+        }
+
+        Offer offer(Runnable task) {
+            synchronized (this) {
+                if (retired) {
+                    return Offer.RETIRED;
+                }
+                if (queue.size() >= capacity) {
+                    return Offer.FULL;
+                }
+                queue.add(task);
+                if (running) {
+                    return Offer.ACCEPTED;
+                }
+                running = true;
+            }
+            drain();
+            return Offer.ACCEPTED;
+        }
+
+        // called with nothing running for this device, starts the next task or waits for a token
+        void drain() {
+            Runnable next;
+            long waitNanos;
+            synchronized (this) {
+                if (queue.isEmpty()) {
+                    running = false;
+                    next = null;
+                    waitNanos = -1;
+                } else {
+                    refill();
+                    if (tokens >= 1) {
+                        tokens -= 1;
+                        next = queue.poll();
+                        waitNanos = 0;
+                    } else {
+                        next = null;
+                        waitNanos = nanosUntil(1);
+                    }
+                }
+            }
+            if (waitNanos < 0) {
+                retireIfIdle();
+            } else if (next != null) {
+                next.run();
+            } else {
+                schedule(this::drain, waitNanos);
+            }
+        }
+
+        // dropping the mailbox any earlier would hand the next request a full bucket and skip the pacing
+        void retireIfIdle() {
+            long waitNanos;
+            synchronized (this) {
+                if (running || retired || !queue.isEmpty()) {
+                    return;
+                }
+                refill();
+                if (tokens < burst) {
+                    if (retireScheduled) {
+                        return;
+                    }
+                    retireScheduled = true;
+                    waitNanos = nanosUntil(burst);
+                } else {
+                    retired = true;
+                    waitNanos = 0;
+                }
+            }
+            if (waitNanos > 0) {
+                schedule(this::retireLater, waitNanos);
+                return;
+            }
+            // gauge first, a replacement registering while this one is still registered would get this gauge back
+            meterRegistry.remove(gauge);
+            mailboxesByIp.remove(ip, this);
+        }
+
+        private void retireLater() {
+            synchronized (this) {
+                retireScheduled = false;
+            }
+            retireIfIdle();
+        }
+
+        // caller holds the lock
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerSecond / TimeUnit.SECONDS.toNanos(1));
+            refilledAt = now;
+        }
+
+        // caller holds the lock
+        private long nanosUntil(double target) {
+            return (long) Math.ceil((target - tokens) * TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        }
+
+        private void schedule(Runnable task, long delayNanos) {
+            try {
+                pacingScheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                log.debug("not pacing {} while shutting down", ip);
+            }
+        }
+    }
+}
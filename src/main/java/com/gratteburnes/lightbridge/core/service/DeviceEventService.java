@@ -0,0 +1,139 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DeviceEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Fans device events out to server-sent event subscribers. Every subscriber has its own bounded buffer drained by a
+ * shared pool, a slow subscriber loses its oldest events instead of holding memory or delaying the others.
+ */
+@Service
+@Slf4j
+public class DeviceEventService {
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService sendExecutor;
+    private final Counter droppedEvents;
+    private final int bufferSize;
+    private final long timeoutMillis;
+
+    public DeviceEventService(MeterRegistry meterRegistry,
+                              @Value("${lightbridge.events.threads:4}") int threads,
+                              @Value("${lightbridge.events.buffer.size:64}") int bufferSize,
+                              @Value("${lightbridge.events.timeout.millis:1800000}") long timeoutMillis) {
+        if (threads < 1 || bufferSize < 1) {
+            throw new IllegalArgumentException("Event threads and buffer size must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.timeoutMillis = timeoutMillis;
+        this.sendExecutor = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("device-events-"));
+        this.droppedEvents = Counter.builder("lightbridge.events.dropped")
+                .description("Device events dropped because a subscriber's buffer was full")
+                .register(meterRegistry);
+        Gauge.builder("lightbridge.events.subscribers", subscribers, Set::size)
+                .description("Connected device event subscribers")
+                .register(meterRegistry);
+    }
+
+    // macs limits the subscription to those devices, empty means every device
+    public SseEmitter subscribe(Set<String> macs) {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter, macs == null ? Collections.emptySet() : Set.copyOf(macs));
+        subscribers.add(subscriber);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        log.debug("{} device event subscribers", subscribers.size());
+        return emitter;
+    }
+
+    public void publish(DeviceEvent event) {
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.accepts(event)) {
+                subscriber.offer(event);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        sendExecutor.shutdownNow();
+    }
+
+    private class Subscriber implements Runnable {
+        private final SseEmitter emitter;
+        private final Set<String> macs;
+        private final Deque<DeviceEvent> buffer = new ArrayDeque<>();
+        private boolean draining;
+
+        Subscriber(SseEmitter emitter, Set<String> macs) {
+            this.emitter = emitter;
+            this.macs = macs;
+        }
+
+        boolean accepts(DeviceEvent event) {
+            return macs.isEmpty() || event.getDevice() == null || macs.contains(event.getDevice().getMac());
+        }
+
+        void offer(DeviceEvent event) {
+            synchronized (this) {
+                if (buffer.size() >= bufferSize) {
+                    buffer.poll();
+                    droppedEvents.increment();
+                }
+                buffer.add(event);
+                if (draining) {
+                    return;
+                }
+                draining = true;
+            }
+            try {
+                sendExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                subscribers.remove(this);
+            }
+        }
+
+        // at most one drain per subscriber at a time so its events stay in order
+        @Override
+        public void run() {
+            while (true) {
+                DeviceEvent event;
+                synchronized (this) {
+                    event = buffer.poll();
+                    if (event == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    emitter.send(SseEmitter.event()
+                            .name(event.getType().name().toLowerCase(Locale.ROOT))
+                            .data(event, MediaType.APPLICATION_JSON));
+                } catch (IOException | IllegalStateException e) {
+                    log.debug("dropping device event subscriber: {}", e.getMessage());
+                    subscribers.remove(this);
+                    emitter.completeWithError(e);
+                    synchronized (this) {
+                        buffer.clear();
+                        draining = false;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
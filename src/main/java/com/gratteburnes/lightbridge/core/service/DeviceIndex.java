@@ -0,0 +1,211 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+
+import java.util.*;
+
+/**
+ * Immutable snapshot of the device repository and its lookup maps. Mutations copy the snapshot,
+ * so readers holding a reference always see a consistent set of maps.
+ *
+ * {@link #resolve(String)} finds a device from whatever a caller typed (ip, mac or name) without allocating: ips and
+ * macs are parsed in place and looked up in sorted primitive arrays, names in a case-insensitive tree. When several
+ * devices share an ip, mac or name the first one by key wins.
+ */
+public final class DeviceIndex {
+    public static final DeviceIndex EMPTY = new DeviceIndex(Collections.emptyMap());
+
+    private final SortedMap<String, IDevice> devicesByKey;
+    private final Map<String, String> keyByMac;
+    private final Map<String, String> keyByIp;
+    private final Map<String, String> keyByName;
+    private final NavigableMap<String, String> keyByNameIgnoreCase;
+    // parsed ips and macs, sorted, with the matching keys at the same position
+    private final long[] ips;
+    private final String[] ipKeys;
+    private final long[] macs;
+    private final String[] macKeys;
+
+    public DeviceIndex(Map<String, ? extends IDevice> devices) {
+        SortedMap<String, IDevice> byKey = new TreeMap<>();
+        Map<String, String> byMac = new HashMap<>();
+        Map<String, String> byIp = new HashMap<>();
+        Map<String, String> byName = new HashMap<>();
+        NavigableMap<String, String> byNameIgnoreCase = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        SortedMap<Long, String> byParsedIp = new TreeMap<>();
+        SortedMap<Long, String> byParsedMac = new TreeMap<>();
+        devices.forEach((key, device) -> byKey.put(key, new Device(device)));
+        // in key order, so the first device by key keeps a shared ip, mac or name
+        byKey.forEach((key, device) -> {
+            byIp.putIfAbsent(device.getIp(), key);
+            byMac.putIfAbsent(device.getMac(), key);
+            if (device.getName() != null) {
+                byName.putIfAbsent(device.getName(), key);
+                byNameIgnoreCase.putIfAbsent(device.getName(), key);
+            }
+            long ip = parseIp(device.getIp());
+            if (ip >= 0) {
+                byParsedIp.putIfAbsent(ip, key);
+            }
+            long mac = parseMac(device.getMac());
+            if (mac >= 0) {
+                byParsedMac.putIfAbsent(mac, key);
+            }
+        });
+        this.devicesByKey = Collections.unmodifiableSortedMap(byKey);
+        this.keyByMac = Collections.unmodifiableMap(byMac);
+        this.keyByIp = Collections.unmodifiableMap(byIp);
+        this.keyByName = Collections.unmodifiableMap(byName);
+        this.keyByNameIgnoreCase = Collections.unmodifiableNavigableMap(byNameIgnoreCase);
+        this.ips = byParsedIp.keySet().stream().mapToLong(Long::longValue).toArray();
+        this.ipKeys = byParsedIp.values().toArray(new String[0]);
+        this.macs = byParsedMac.keySet().stream().mapToLong(Long::longValue).toArray();
+        this.macKeys = byParsedMac.values().toArray(new String[0]);
+    }
+
+    /**
+     * The device an ip, mac or name refers to, null when none does. Anything that parses as an ipv4 address is only
+     * looked up as one. Otherwise an exact name match comes first, then a mac (any case, with or without ':' or '-'
+     * separators), then a name ignoring case.
+     */
+    public IDevice resolve(String ipMacOrName) {
+        if (ipMacOrName == null || ipMacOrName.isEmpty()) {
+            return null;
+        }
+        long ip = parseIp(ipMacOrName);
+        if (ip >= 0) {
+            return getByKey(find(ips, ipKeys, ip));
+        }
+        IDevice device = getByKey(keyByName.get(ipMacOrName));
+        if (device != null) {
+            return device;
+        }
+        long mac = parseMac(ipMacOrName);
+        if (mac >= 0) {
+            device = getByKey(find(macs, macKeys, mac));
+            if (device != null) {
+                return device;
+            }
+        }
+        return getByKey(keyByNameIgnoreCase.get(ipMacOrName));
+    }
+
+    private static String find(long[] values, String[] keys, long value) {
+        int i = Arrays.binarySearch(values, value);
+        return i < 0 ? null : keys[i];
+    }
+
+    /**
+     * Dotted quad ipv4 address as an unsigned int, -1 when it isn't one. Octets are one to three digits within
+     * [0, 254] since a device never sits on a broadcast address.
+     */
+    static long parseIp(String ip) {
+        if (ip == null) {
+            return -1;
+        }
+        int length = ip.length();
+        if (length < 7 || length > 15) {
+            return -1;
+        }
+        long address = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = 0; i < length; i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                if (++digits > 3 || octet > 254) {
+                    return -1;
+                }
+            } else if (c == '.' && digits > 0 && ++dots < 4) {
+                address = (address << 8) | octet;
+                octet = 0;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        return dots == 3 && digits > 0 ? (address << 8) | octet : -1;
+    }
+
+    /**
+     * Twelve hex digit mac as a number, -1 when it isn't one. Digits may be grouped in pairs by ':' or '-'.
+     */
+    static long parseMac(String mac) {
+        if (mac == null) {
+            return -1;
+        }
+        int length = mac.length();
+        if (length != 12 && length != 17) {
+            return -1;
+        }
+        long address = 0;
+        int digits = 0;
+        for (int i = 0; i < length; i++) {
+            char c = mac.charAt(i);
+            if (length == 17 && i % 3 == 2) {
+                if (c != ':' && c != '-') {
+                    return -1;
+                }
+                continue;
+            }
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+            address = (address << 4) | digit;
+            digits++;
+        }
+        return digits == 12 ? address : -1;
+    }
+
+    public SortedMap<String, IDevice> getDevicesByKey() {
+        return devicesByKey;
+    }
+
+    // mutable copy of the devices, used to build the next snapshot
+    public SortedMap<String, IDevice> copyDevices() {
+        return new TreeMap<>(devicesByKey);
+    }
+
+    public IDevice getByKey(String key) {
+        return key == null ? null : devicesByKey.get(key);
+    }
+
+    public IDevice getByIp(String ip) {
+        return getByKey(keyByIp.get(ip));
+    }
+
+    public IDevice getByMac(String mac) {
+        return getByKey(keyByMac.get(mac));
+    }
+
+    // exact name, first device by key when several share it
+    public IDevice getByName(String name) {
+        return getByKey(keyByName.get(name));
+    }
+
+    public boolean containsKey(String key) {
+        return devicesByKey.containsKey(key);
+    }
+
+    public boolean containsIp(String ip) {
+        return keyByIp.containsKey(ip);
+    }
+
+    public boolean containsMac(String mac) {
+        return keyByMac.containsKey(mac);
+    }
+
+    public int size() {
+        return devicesByKey.size();
+    }
+}
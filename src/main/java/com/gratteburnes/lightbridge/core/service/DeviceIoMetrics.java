@@ -0,0 +1,85 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.error.DeviceBusyException;
+import com.gratteburnes.lightbridge.core.model.error.DeviceOfflineException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers and counters for device requests, their retries and discovery, histograms are enabled per meter through
+ * management.metrics.distribution.percentiles-histogram.
+ */
+@Component
+public class DeviceIoMetrics {
+    static final String REQUESTS = "lightbridge.device.requests";
+    static final String RETRIES = "lightbridge.device.retries";
+    static final String FAILURES = "lightbridge.device.failures";
+    static final String DISCOVERY = "lightbridge.discovery";
+
+    private final MeterRegistry meterRegistry;
+    // one series per device is handy up to a few hundred devices, turn it off beyond
+    private final boolean tagDevice;
+
+    public DeviceIoMetrics(MeterRegistry meterRegistry, @Value("${lightbridge.metrics.device.tags:true}") boolean tagDevice) {
+        this.meterRegistry = meterRegistry;
+        this.tagDevice = tagDevice;
+    }
+
+    // failure is null on success
+    public void recordRequest(String operation, String ip, long startNanos, Throwable failure) {
+        Timer.builder(REQUESTS)
+                .description("Device requests from submission to answer, mailbox wait and retries included")
+                .tag("operation", operation)
+                .tag("device", tagDevice && ip != null ? ip : "all")
+                .tag("outcome", outcome(failure))
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordRetry(String operation) {
+        Counter.builder(RETRIES)
+                .description("Device request attempts that failed and were retried")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public void recordFailure(String operation) {
+        Counter.builder(FAILURES)
+                .description("Device requests that failed once retries were exhausted or on a non retryable error")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public void recordDiscovery(String mode, long startNanos, Throwable failure) {
+        Timer.builder(DISCOVERY)
+                .description("Discovery runs")
+                .tag("mode", mode)
+                .tag("outcome", failure == null ? "success" : "failure")
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // offline and busy answers never reached the device, keep them apart from device failures
+    static String outcome(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (cause == null) {
+            return "success";
+        }
+        if (cause instanceof DeviceOfflineException) {
+            return "offline";
+        }
+        if (cause instanceof DeviceBusyException || cause instanceof RejectedExecutionException) {
+            return "busy";
+        }
+        return "failure";
+    }
+}
@@ -0,0 +1,93 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.lightbridge.core.model.SerializedDevice;
+import com.gratteburnes.lightbridge.core.model.SerializedDevicesByName;
+import com.gratteburnes.magichome.model.IDevice;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Serialized form of the listing without state and of each device, built once per device index. A mutation swaps
+ * the index, which invalidates the cache, and devices that didn't change keep their serialized entry.
+ */
+@Service
+public class DeviceListingCache {
+    private final ObjectMapper objectMapper;
+    private volatile Snapshot snapshot;
+
+    public DeviceListingCache(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public SerializedDevicesByName listing(DeviceIndex index, long version) {
+        return new SerializedDevicesByName(index.getDevicesByKey(), snapshot(index).devicesJson, version);
+    }
+
+    public SerializedDevice device(DeviceIndex index, String key, IDevice device) {
+        byte[] json = snapshot(index).entries.get(key);
+        // the device may come from a newer index than the one passed in
+        return new SerializedDevice(device, json != null ? json : serialize(device));
+    }
+
+    private Snapshot snapshot(DeviceIndex index) {
+        Snapshot current = snapshot;
+        if (current != null && current.index == index) {
+            return current;
+        }
+        Snapshot next = new Snapshot(index, current);
+        snapshot = next;
+        return next;
+    }
+
+    private byte[] serialize(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private class Snapshot {
+        private final DeviceIndex index;
+        private final Map<String, byte[]> entries = new HashMap<>();
+        private final byte[] devicesJson;
+
+        Snapshot(DeviceIndex index, Snapshot previous) {
+            this.index = index;
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            json.write('{');
+            index.getDevicesByKey().forEach((key, device) -> {
+                byte[] entry = previous != null ? previous.unchangedEntry(key, device) : null;
+                if (entry == null) {
+                    entry = serialize(device);
+                }
+                entries.put(key, entry);
+                if (json.size() > 1) {
+                    json.write(',');
+                }
+                json.writeBytes(serialize(key));
+                json.write(':');
+                json.writeBytes(entry);
+            });
+            json.write('}');
+            this.devicesJson = json.toByteArray();
+        }
+
+        private byte[] unchangedEntry(String key, IDevice device) {
+            IDevice cached = index.getByKey(key);
+            if (cached == null || !Objects.equals(cached.getIp(), device.getIp())
+                    || !Objects.equals(cached.getMac(), device.getMac())
+                    || !Objects.equals(cached.getName(), device.getName())) {
+                return null;
+            }
+            return entries.get(key);
+        }
+    }
+}
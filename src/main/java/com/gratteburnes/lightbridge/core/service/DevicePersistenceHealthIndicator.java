@@ -0,0 +1,33 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.service.persistence.DeviceStore;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+
+/**
+ * Down under /actuator/health while the device store keeps failing to write, what is served is then ahead of what
+ * a restart would load.
+ */
+@Component("devicePersistence")
+public class DevicePersistenceHealthIndicator implements HealthIndicator {
+    private final DeviceStore deviceStore;
+
+    public DevicePersistenceHealthIndicator(DeviceStore deviceStore) {
+        this.deviceStore = deviceStore;
+    }
+
+    @Override
+    public Health health() {
+        long failingSince = deviceStore.getFailingSince();
+        if (failingSince == 0) {
+            return Health.up().build();
+        }
+        return Health.down()
+                .withDetail("failingSince", Instant.ofEpochMilli(failingSince).toString())
+                .withDetail("lastError", String.valueOf(deviceStore.getLastError()))
+                .build();
+    }
+}
@@ -1,116 +1,232 @@
 package com.gratteburnes.lightbridge.core.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.lightbridge.core.model.DeviceHealth;
+import com.gratteburnes.lightbridge.core.model.DiscoveredDevice;
 import com.gratteburnes.lightbridge.core.model.DeviceWithMessage;
 import com.gratteburnes.lightbridge.core.model.DeviceWithState;
+import com.gratteburnes.lightbridge.core.model.DevicesByName;
 import com.gratteburnes.lightbridge.core.model.error.DeviceConflictException;
-import com.gratteburnes.lightbridge.core.model.error.InvalidIpAddressException;
 import com.gratteburnes.lightbridge.core.model.error.UnknownDeviceException;
+import com.gratteburnes.lightbridge.core.service.persistence.DeviceMutation;
+import com.gratteburnes.lightbridge.core.service.persistence.DeviceStore;
 import com.gratteburnes.magichome.model.Device;
-import com.gratteburnes.magichome.model.DeviceState;
 import com.gratteburnes.magichome.model.IDevice;
-import com.gratteburnes.magichome.model.error.DeviceException;
-import com.gratteburnes.magichome.model.error.DiscoveryException;
-import com.gratteburnes.magichome.model.error.MessageException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.validation.constraints.NotNull;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.SocketTimeoutException;
+import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @Slf4j
 public class DeviceRepositoryService {
 
     private final LightbridgeService lightbridgeService;
-    private final ObjectMapper objectMapper;
-    private final String deviceFile;
-
-    private Map<String, IDevice> devicesByKey;
-    private Map<String, String> keyByMac;
-    private Map<String, String> keyByIp;
-    private Map<String, String> keyByName;
-
-    public DeviceRepositoryService(ObjectMapper objectMapper, @Value("${lightbridge.persistence.location}") String deviceFile, LightbridgeService lightbridgeService) throws IOException, DeviceConflictException, DiscoveryException {
-        this.objectMapper = objectMapper;
-        this.deviceFile = deviceFile;
+    private final StateQueryService stateQueryService;
+    private final DeviceStateCache deviceStateCache;
+    private final DeviceCircuitBreaker circuitBreaker;
+    private final DeviceChangeLog deviceChangeLog;
+    private final DeviceListingCache deviceListingCache;
+    private final DeviceStore deviceStore;
+
+    // readers use whatever snapshot is current, writers swap in a new one under writeLock
+    private final Object writeLock = new Object();
+    private volatile DeviceIndex index = DeviceIndex.EMPTY;
+
+    // by mac, devices that did not answer the last discovery and since when
+    private final Map<String, Long> notSeenSince = new ConcurrentHashMap<>();
+
+    public DeviceRepositoryService(DeviceStore deviceStore, LightbridgeService lightbridgeService, StateQueryService stateQueryService, DeviceStateCache deviceStateCache, DeviceCircuitBreaker circuitBreaker, DeviceChangeLog deviceChangeLog, DeviceListingCache deviceListingCache) throws IOException {
+        this.deviceStore = deviceStore;
         this.lightbridgeService = lightbridgeService;
-
-        this.keyByIp = new HashMap<>();
-        this.keyByName = new HashMap<>();
-        this.keyByMac = new HashMap<>();
-        if (StringUtils.isBlank(deviceFile)) {
-            throw new IllegalArgumentException("Device file cannot be blank");
-        }
+        this.stateQueryService = stateQueryService;
+        this.deviceStateCache = deviceStateCache;
+        this.circuitBreaker = circuitBreaker;
+        this.deviceChangeLog = deviceChangeLog;
+        this.deviceListingCache = deviceListingCache;
         initialize();
     }
 
     public void addDevice(IDevice device) throws DeviceConflictException, IOException {
-        validateNewDevice(device);
-        String deviceKey = buildDeviceKey(device);
-        devicesByKey.put(deviceKey, device);
-        keyByIp.put(device.getIp(), deviceKey);
-        keyByMac.put(device.getMac(), deviceKey);
-        keyByName.put(device.getName(), deviceKey);
-
-
-        log.info("added device {} -> {}", deviceKey, device);
-        persistRepository();
+        synchronized (writeLock) {
+            validateNewDevice(index, device);
+            String deviceKey = buildDeviceKey(device);
+            Map<String, IDevice> devices = index.copyDevices();
+            devices.put(deviceKey, device);
+            commit(devices, DeviceMutation.put(deviceKey, device));
+            deviceChangeLog.recordAdded(deviceKey, device);
+
+            log.info("added device {} -> {}", deviceKey, device);
+        }
     }
 
-    private void validateNewDevice(IDevice device) throws DeviceConflictException {
+    private void validateNewDevice(DeviceIndex index, IDevice device) throws DeviceConflictException {
         if (device == null) {
             throw new IllegalArgumentException("Device cannot be null");
         }
         // do not validate name as duplicates are allowed
-        if (devicesByKey.containsKey(buildDeviceKey(device))) {
+        if (index.containsKey(buildDeviceKey(device))) {
             throw new DeviceConflictException(device, "key");
         }
-        if (keyByMac.containsKey(device.getMac())) {
+        if (index.containsMac(device.getMac())) {
             throw new DeviceConflictException(device, "mac");
         }
-        if (keyByIp.containsKey(device.getIp())) {
+        if (index.containsIp(device.getIp())) {
             throw new DeviceConflictException(device, "ip");
         }
     }
 
-    public void clearDevices() throws IOException {
-        devicesByKey.clear();
+    /**
+     * Merges a discovery run in a single commit: new macs are added, known macs that answered on another ip get it
+     * in place, and known devices that did not answer are reported as not seen. A device whose ip was taken over by
+     * a device that answered loses it, so commands can't reach the wrong bulb, until it is discovered again.
+     * Results are keyed by device key.
+     */
+    public Map<String, IDevice> reconcile(Map<String, IDevice> discovered) throws IOException {
+        if (discovered == null) {
+            throw new IllegalArgumentException("Discovered devices cannot be null");
+        }
+        return merge(discovered.values(), true);
+    }
 
-        keyByIp.clear();
-        keyByMac.clear();
-        keyByName.clear();
+    /**
+     * Merges a single discovery reply as soon as it arrives, same rules as {@link #reconcile(Map)} except that devices
+     * that have not answered yet are left alone.
+     */
+    public DiscoveredDevice reconcileFound(IDevice found) throws IOException {
+        if (found == null || StringUtils.isBlank(found.getMac())) {
+            throw new IllegalArgumentException("Discovered device must have a mac");
+        }
+        // the result also holds the device that lost its ip to this one, if any
+        for (IDevice device : merge(List.of(found), false).values()) {
+            if (found.getMac().equals(device.getMac())) {
+                return (DiscoveredDevice) device;
+            }
+        }
+        throw new IllegalStateException("Discovered device " + found.getMac() + " was not merged");
+    }
+
+    private Map<String, IDevice> merge(Collection<IDevice> discovered, boolean complete) throws IOException {
+        long now = System.currentTimeMillis();
+        synchronized (writeLock) {
+            DeviceIndex current = index;
+            Map<String, IDevice> devices = current.copyDevices();
+            Map<String, IDevice> result = new TreeMap<>();
+            Map<String, IDevice> added = new HashMap<>();
+            Map<String, IDevice> updated = new HashMap<>();
+            Set<String> seenMacs = new HashSet<>();
+            Set<String> seenIps = new HashSet<>();
+            // applied to notSeenSince once the commit went through, a failing store leaves it untouched
+            Map<String, Long> unseenSince = new HashMap<>();
+
+            for (IDevice found : discovered) {
+                if (found == null || StringUtils.isBlank(found.getMac()) || !seenMacs.add(found.getMac())) {
+                    continue;
+                }
+                seenIps.add(found.getIp());
+                IDevice known = current.getByMac(found.getMac());
+                if (known == null) {
+                    String key = buildDeviceKey(found);
+                    devices.put(key, found);
+                    added.put(key, found);
+                    result.put(key, new DiscoveredDevice(found, true));
+                } else if (!Objects.equals(known.getIp(), found.getIp())) {
+                    String key = buildDeviceKey(known);
+                    IDevice moved = new Device(known).setIp(found.getIp());
+                    devices.put(key, moved);
+                    updated.put(key, moved);
+                    result.put(key, new DiscoveredDevice(moved, false, "ip changed from " + known.getIp()));
+                } else {
+                    result.put(buildDeviceKey(known), new DiscoveredDevice(known, false));
+                }
+            }
 
-        log.info("cleared devices");
-        persistRepository();
+            devices.forEach((key, device) -> {
+                if (seenMacs.contains(device.getMac())) {
+                    return;
+                }
+                boolean displaced = device.getIp() != null && seenIps.contains(device.getIp());
+                if (!complete && !displaced) {
+                    return;
+                }
+                long since = notSeenSince.getOrDefault(device.getMac(), now);
+                unseenSince.put(device.getMac(), since);
+                IDevice unseen = device;
+                String message = "not seen since " + Instant.ofEpochMilli(since);
+                if (displaced) {
+                    unseen = new Device(device).setIp(null);
+                    updated.put(key, unseen);
+                    message = "ip " + device.getIp() + " was taken over by another device, " + message;
+                }
+                result.put(key, new DiscoveredDevice(unseen, false, message).setSeen(false));
+            });
+            devices.putAll(updated);
+
+            if (!added.isEmpty() || !updated.isEmpty()) {
+                List<DeviceMutation> mutations = new ArrayList<>();
+                added.forEach((key, device) -> mutations.add(DeviceMutation.put(key, device)));
+                updated.forEach((key, device) -> mutations.add(DeviceMutation.put(key, device)));
+                commit(devices, mutations.toArray(new DeviceMutation[0]));
+                added.forEach(deviceChangeLog::recordAdded);
+                updated.values().forEach(deviceChangeLog::recordUpdated);
+            }
+            notSeenSince.keySet().removeAll(seenMacs);
+            notSeenSince.putAll(unseenSince);
+            if (complete) {
+                log.info("reconciled discovery: {} found, {} added, {} updated, {} not seen",
+                        seenMacs.size(), added.size(), updated.size(), notSeenSince.size());
+            } else {
+                log.debug("reconciled discovery reply: {} added, {} updated", added.size(), updated.size());
+            }
+            return result;
+        }
+    }
+
+    public int getDeviceCount() {
+        return index.size();
+    }
+
+    // by mac
+    public Map<String, Long> getNotSeenSince() {
+        return Collections.unmodifiableMap(notSeenSince);
+    }
+
+    public void clearDevices() throws IOException {
+        synchronized (writeLock) {
+            commit(Collections.emptyMap(), DeviceMutation.clear());
+            deviceStateCache.clear();
+            notSeenSince.clear();
+            deviceChangeLog.recordCleared();
+
+            log.info("cleared devices");
+        }
     }
 
     public IDevice removeDevice(String ipOrName) throws IOException, UnknownDeviceException {
         if (StringUtils.isBlank(ipOrName)) {
             throw new IllegalArgumentException("Device name cannot be blank");
         }
-        IDevice device = getDeviceFromString(ipOrName);
-        if (device == null) {
-            throw new UnknownDeviceException(ipOrName);
-        } else {
-            devicesByKey.remove(buildDeviceKey(device));
-            keyByMac.remove(device.getMac());
-            keyByIp.remove(device.getIp());
-            keyByName.remove(device.getName());
+        synchronized (writeLock) {
+            IDevice device = getDeviceFromString(ipOrName);
+            if (device == null) {
+                throw new UnknownDeviceException(ipOrName);
+            }
+            String deviceKey = buildDeviceKey(device);
+            Map<String, IDevice> devices = index.copyDevices();
+            devices.remove(deviceKey);
+            commit(devices, DeviceMutation.remove(deviceKey));
+            deviceStateCache.invalidate(device);
+            notSeenSince.remove(device.getMac());
+            deviceChangeLog.recordRemoved(deviceKey, device);
+
+            log.info("removed device {}", ipOrName);
+            return device;
         }
-
-        log.info("removed device {}", ipOrName);
-        persistRepository();
-        return device;
     }
 
     public void renameDevice(String ipOrName, String newName) throws IOException, UnknownDeviceException {
@@ -121,32 +237,70 @@ public class DeviceRepositoryService {
             throw new IllegalArgumentException("New name cannot be blank");
         }
 
-        IDevice oldDevice = getDeviceFromString(ipOrName);
-        if (oldDevice == null) {
-            log.info("{} does not map to a device", ipOrName);
-            throw new UnknownDeviceException(ipOrName);
-        } else {
-            String oldName = oldDevice.getName();
-            log.info("Renaming {} to {}", oldName, newName);
-            devicesByKey.remove(buildDeviceKey(oldDevice));
-            keyByIp.remove(oldDevice.getIp());
-            keyByMac.remove(oldDevice.getMac());
-            keyByName.remove(oldName);
-
+        synchronized (writeLock) {
+            IDevice oldDevice = getDeviceFromString(ipOrName);
+            if (oldDevice == null) {
+                log.info("{} does not map to a device", ipOrName);
+                throw new UnknownDeviceException(ipOrName);
+            }
+            log.info("Renaming {} to {}", oldDevice.getName(), newName);
             IDevice newDevice = new Device()
                     .setIp(oldDevice.getIp())
                     .setMac(oldDevice.getMac())
                     .setName(newName);
+            // both changes land in the same snapshot so readers never see a half applied rename
+            String oldKey = buildDeviceKey(oldDevice);
             String newKey = buildDeviceKey(newDevice);
-            devicesByKey.put(newKey, newDevice);
-            keyByIp.put(newDevice.getIp(), newKey);
-            keyByMac.put(newDevice.getMac(), newKey);
-            keyByName.put(newDevice.getName(), newKey);
+            Map<String, IDevice> devices = index.copyDevices();
+            devices.remove(oldKey);
+            devices.put(newKey, newDevice);
+            commit(devices, DeviceMutation.remove(oldKey), DeviceMutation.put(newKey, newDevice));
+            deviceChangeLog.recordRenamed(oldKey, newKey, newDevice, oldDevice.getName());
         }
-        persistRepository();
     }
 
+    /**
+     * Plain copy of the device an ip, mac or name refers to, for callers that only need its ip or mac. Unlike
+     * {@link #getDevice(String, boolean, boolean)} it never serializes anything.
+     */
+    public @NotNull IDevice findDevice(String ipOrName) throws UnknownDeviceException {
+        return new Device(resolveDevice(ipOrName));
+    }
+
+    // the serialized form is meant for the http response, internal callers use findDevice
     public @NotNull IDevice getDevice(String ipOrName, boolean includeState, boolean useCache) throws UnknownDeviceException {
+        return getDeviceAsync(ipOrName, includeState, useCache).join();
+    }
+
+    public CompletableFuture<IDevice> getDeviceAsync(String ipOrName, boolean includeState, boolean useCache) throws UnknownDeviceException {
+        DeviceIndex current = index;
+        IDevice device = resolveDevice(ipOrName);
+        if (!includeState) {
+            return CompletableFuture.completedFuture(deviceListingCache.device(current, buildDeviceKey(device), device));
+        }
+        DeviceWithState cached = useCache ? deviceStateCache.get(device) : null;
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return lightbridgeService.queryStateAsync(device.getIp())
+                .handle((state, e) -> {
+                    if (e != null) {
+                        Throwable cause = FutureResults.unwrap(e);
+                        log.error("While getting device: {}", cause.getMessage(), cause);
+                        return fallbackState(device, cause.getMessage(), useCache);
+                    }
+                    return deviceStateCache.put(device, state);
+                });
+    }
+
+    // unlike getDeviceAsync, fails when the device can't be reached
+    public CompletableFuture<DeviceWithState> queryDeviceState(String ipOrName) throws UnknownDeviceException {
+        IDevice device = resolveDevice(ipOrName);
+        return lightbridgeService.queryStateAsync(device.getIp())
+                .thenApply(state -> deviceStateCache.put(device, state));
+    }
+
+    private IDevice resolveDevice(String ipOrName) throws UnknownDeviceException {
         if (StringUtils.isBlank(ipOrName)) {
             throw new IllegalArgumentException("Device ipOrName cannot be blank");
         }
@@ -155,123 +309,102 @@ public class DeviceRepositoryService {
             log.info("{} does not map to a device", ipOrName);
             throw new UnknownDeviceException(ipOrName);
         }
-
-        if(! includeState) {
-            device = new Device(device);
-        } else if(!useCache || !(device instanceof DeviceWithState)) {
-            try {
-                device = new DeviceWithState(device).setDeviceState(lightbridgeService.queryState(device.getIp()));
-                devicesByKey.put(buildDeviceKey(device), device);
-            } catch (MessageException | DeviceException e) {
-                log.error("While getting device: {}", e.getMessage(), e);
-                device = new DeviceWithMessage(device, e.getMessage());
-            }
-        }
-
         return device;
     }
 
-    private IDevice getDeviceFromString(String ipOrName) {
-        try {
-            validateIp(ipOrName);
-            return devicesByKey.get(keyByIp.get(ipOrName));
-        } catch (InvalidIpAddressException e) {
-            return devicesByKey.get(keyByName.get(ipOrName));
-        }
+    // package private for the benchmarks
+    IDevice getDeviceFromString(String ipMacOrName) {
+        return index.resolve(ipMacOrName);
     }
 
     public Map<String, IDevice> getDevices(boolean includeState, boolean useCache) {
-        Map<String, IDevice> result;
-        result = devicesByKey.entrySet().stream()
-                .map(entry -> {
-                    if (!includeState) {
-                        // strip out potential state by converting to devices
-                        return new AbstractMap.SimpleEntry<String, IDevice>(entry.getKey(), new Device(entry.getValue()));
-                    } else if (useCache) {
-                        IDevice iDevice = entry.getValue();
-                        if (!(iDevice instanceof DeviceWithState)) { // no state included
-                            return getDeviceWithFreshStateEntry(entry.getKey(), iDevice);
-                        } else { // we already have cached state
-                            return entry;
-                        }
-                    } else {
-                        // override cachedState
-                        IDevice iDevice = entry.getValue();
-                        return getDeviceWithFreshStateEntry(entry.getKey(), iDevice);
-                    }
-                })
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-        return Collections.unmodifiableMap(result);
+        return getDevicesAsync(includeState, useCache).join();
     }
 
-    private Map.Entry<String, ? extends IDevice> getDeviceWithFreshStateEntry(String key, IDevice iDevice) {
-        try {
-            DeviceState state = lightbridgeService.queryState(iDevice.getIp());
-            DeviceWithState deviceWithState = new DeviceWithState(iDevice)
-                    .setDeviceState(state);
-            devicesByKey.put(key, deviceWithState);
-            return new AbstractMap.SimpleEntry<>(key,
-                   deviceWithState);
-        } catch (Exception e) {
-            String message = e.getMessage();
-            log.error("While querying device state for {}: {}", key, message, e);
-            return new AbstractMap.SimpleEntry<>(key,
-                    new DeviceWithMessage(iDevice, message));
-        }
+    public CompletableFuture<Map<String, IDevice>> getDevicesAsync(boolean includeState, boolean useCache) {
+        return getDevicesAsync(index.getDevicesByKey(), includeState, useCache);
     }
 
-    private void initialize() throws IOException, DiscoveryException, DeviceConflictException {
-        File f = new File(deviceFile);
-        if (f.isFile() && f.canRead()) {
-            try (FileInputStream fis = new FileInputStream(f)) {
-                devicesByKey = new TreeMap<>(objectMapper.readValue(fis.readAllBytes(), new TypeReference<Map<String, Device>>() {
-                }));
-            }
-        } else {
-            devicesByKey = new TreeMap<>();
-            Map<String, IDevice> devices = lightbridgeService.discover();
-            clearDevices();
-            if (devices == null) {
-                throw new IllegalArgumentException("Devices map cannot be null");
-            }
-            for (IDevice device : devices.values()) {
-                addDevice(device);
-            }
+    /**
+     * Lists the devices that changed after since (a version from a previous listing) along with the keys removed
+     * since then. A null since, or one the change log can't answer anymore, lists every device.
+     */
+    public CompletableFuture<DevicesByName> listDevicesAsync(boolean includeState, boolean useCache, Long since) {
+        // read before the devices so a concurrent change is listed again rather than missed
+        long version = deviceChangeLog.getVersion();
+        DeviceIndex current = index;
+        Map<String, IDevice> devicesByKey = current.getDevicesByKey();
+        if (!includeState && since == null) {
+            return CompletableFuture.completedFuture(deviceListingCache.listing(current, version));
         }
-        devicesByKey.forEach((key, value) -> {
-            keyByIp.put(value.getIp(), key);
-            keyByMac.put(value.getMac(), key);
-            keyByName.put(value.getName(), key);
+        if (since == null || !deviceChangeLog.canAnswer(since)) {
+            return getDevicesAsync(devicesByKey, includeState, useCache)
+                    .thenApply(devices -> new DevicesByName(devices).setVersion(version));
+        }
+        Map<String, IDevice> changed = new HashMap<>();
+        devicesByKey.forEach((key, device) -> {
+            if (deviceChangeLog.changedSince(device.getMac(), since)) {
+                changed.put(key, device);
+            }
         });
+        List<String> removed = deviceChangeLog.removedSince(since);
+        return getDevicesAsync(changed, includeState, useCache)
+                .thenApply(devices -> new DevicesByName(devices).setVersion(version).setDelta(true).setRemoved(removed));
     }
 
-    private void persistRepository() throws IOException {
-        try (FileOutputStream fos = new FileOutputStream(new File(deviceFile))) {
-            fos.write(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(devicesByKey));
-        }
-    }
+    private CompletableFuture<Map<String, IDevice>> getDevicesAsync(Map<String, IDevice> devicesByKey, boolean includeState, boolean useCache) {
+        Map<String, IDevice> result = new HashMap<>();
+        Map<String, IDevice> toQuery = new HashMap<>();
+        devicesByKey.forEach((key, iDevice) -> {
+            DeviceWithState cached = includeState && useCache ? deviceStateCache.get(iDevice) : null;
+            if (!includeState) {
+                result.put(key, new Device(iDevice));
+            } else if (cached != null) {
+                result.put(key, cached);
+            } else {
+                // no fresh cached state or override cachedState
+                toQuery.put(key, iDevice);
+            }
+        });
 
-    private void validateIp(String ip) throws InvalidIpAddressException {
-        if (StringUtils.isBlank(ip)) {
-            throw new InvalidIpAddressException(ip);
+        if (toQuery.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.unmodifiableMap(result));
         }
+        return stateQueryService.queryStates(toQuery).thenApply(states -> {
+            states.forEach((key, iDevice) -> {
+                if (iDevice instanceof DeviceWithState) {
+                    result.put(key, deviceStateCache.put(iDevice, ((DeviceWithState) iDevice).getDeviceState()));
+                } else {
+                    String message = iDevice instanceof DeviceWithMessage ? ((DeviceWithMessage) iDevice).getMessage() : "";
+                    result.put(key, fallbackState(toQuery.get(key), message, useCache));
+                }
+            });
+            return Collections.unmodifiableMap(result);
+        });
+    }
 
-        String[] tokens = ip.split("\\.");
+    // when the device can't be reached, callers accepting cached state get the last known one flagged as stale
+    private IDevice fallbackState(IDevice device, String message, boolean useCache) {
+        DeviceWithState lastKnown = useCache ? deviceStateCache.getAnyAge(device) : null;
+        DeviceHealth health = circuitBreaker.getHealthIfTripped(device.getIp());
+        return lastKnown != null ? lastKnown.setHealth(health) : new DeviceWithMessage(device, message).setHealth(health);
+    }
 
-        if (tokens.length != 4) {
-            throw new InvalidIpAddressException(ip);
+    // only loads what was persisted, DeviceStartupService discovers in the background once the app is up
+    private void initialize() throws IOException {
+        Map<String, Device> persisted = deviceStore.load();
+        if (persisted != null) {
+            index = new DeviceIndex(persisted);
         }
+        log.info("loaded {} persisted devices", index.size());
+    }
 
-        for (String token : tokens) {
-            try {
-                int quad = Integer.parseInt(token);
-                if (quad < 0 || quad > 254) {
-                    throw new InvalidIpAddressException(ip);
-                }
-            } catch (NumberFormatException e) {
-                throw new InvalidIpAddressException(ip);
-            }
-        }
+    // persists first, a store that fails right away (journal) leaves the repository unchanged. The json store writes
+    // behind, the index moves on and a failed write is retried and reported by the store. Caller must hold writeLock
+    private void commit(Map<String, IDevice> devices, DeviceMutation... mutations) throws IOException {
+        DeviceIndex next = new DeviceIndex(devices);
+        deviceStore.persist(Arrays.asList(mutations), next.getDevicesByKey());
+        index = next;
     }
 
     public String buildDeviceKey(IDevice device) {
@@ -0,0 +1,43 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+
+/**
+ * Startup progress under /actuator/health, part of the readiness group: out of service while a bridge that had no
+ * persisted devices runs its first discovery. A failed discovery doesn't hold readiness back.
+ */
+@Component("deviceStartup")
+public class DeviceStartupHealthIndicator implements HealthIndicator {
+    private final DeviceStartupService deviceStartupService;
+
+    public DeviceStartupHealthIndicator(DeviceStartupService deviceStartupService) {
+        this.deviceStartupService = deviceStartupService;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder health = deviceStartupService.isAcceptingTraffic() ? Health.up() : Health.outOfService();
+        health.withDetail("phase", deviceStartupService.getPhase())
+                .withDetail("persistedDevices", !deviceStartupService.isEmpty());
+        if (deviceStartupService.getStartedAt() > 0) {
+            health.withDetail("startedAt", Instant.ofEpochMilli(deviceStartupService.getStartedAt()).toString());
+        }
+        if (deviceStartupService.getDiscoveredAt() > 0) {
+            health.withDetail("discoveryMillis", deviceStartupService.getDiscoveredAt() - deviceStartupService.getStartedAt());
+        }
+        if (deviceStartupService.getDiscovered() >= 0) {
+            health.withDetail("discovered", deviceStartupService.getDiscovered());
+        }
+        if (deviceStartupService.getDiscoveryError() != null) {
+            health.withDetail("discoveryError", deviceStartupService.getDiscoveryError());
+        }
+        if (deviceStartupService.getReadyAt() > 0) {
+            health.withDetail("readyMillis", deviceStartupService.getReadyAt() - deviceStartupService.getStartedAt());
+        }
+        return health.build();
+    }
+}
@@ -0,0 +1,131 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.magichome.model.IDevice;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the initial discovery and state warm-up in the background once the app is up, so startup never waits on the
+ * network. The repository serves whatever was persisted meanwhile. A failed discovery is logged and reported, the
+ * scheduled discovery gets the next chance.
+ */
+@Service
+@Slf4j
+public class DeviceStartupService {
+    public enum Phase {
+        STARTING, DISCOVERING, WARMING_UP, READY
+    }
+
+    private final LightbridgeService lightbridgeService;
+    private final DeviceRepositoryService deviceRepositoryService;
+    private final boolean discoveryEnabled;
+    private final boolean warmUpEnabled;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("device-startup-"));
+
+    private volatile Phase phase = Phase.STARTING;
+    // no persisted device, the bridge has nothing to serve until discovery is done. Known before the first health
+    // check, readiness must not go up and back down once start() runs
+    private final boolean empty;
+    private volatile long startedAt;
+    private volatile long discoveredAt;
+    private volatile long readyAt;
+    private volatile int discovered = -1;
+    private volatile String discoveryError;
+
+    public DeviceStartupService(LightbridgeService lightbridgeService, DeviceRepositoryService deviceRepositoryService,
+                                @Value("${lightbridge.discovery.startup.enabled:true}") boolean discoveryEnabled,
+                                @Value("${lightbridge.state.warmup.enabled:true}") boolean warmUpEnabled) {
+        this.lightbridgeService = lightbridgeService;
+        this.deviceRepositoryService = deviceRepositoryService;
+        this.discoveryEnabled = discoveryEnabled;
+        this.warmUpEnabled = warmUpEnabled;
+        this.empty = deviceRepositoryService.getDeviceCount() == 0;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        startedAt = System.currentTimeMillis();
+        executor.execute(this::run);
+    }
+
+    private void run() {
+        if (discoveryEnabled) {
+            phase = Phase.DISCOVERING;
+            try {
+                Map<String, IDevice> devices = lightbridgeService.discover();
+                discovered = deviceRepositoryService.reconcile(devices != null ? devices : Map.of()).size();
+                log.info("startup discovery reconciled {} devices in {} ms", discovered, System.currentTimeMillis() - startedAt);
+            } catch (Exception e) {
+                discoveryError = e.getMessage();
+                log.error("While running startup discovery: {}", e.getMessage(), e);
+            }
+            discoveredAt = System.currentTimeMillis();
+        }
+        if (!warmUpEnabled) {
+            ready();
+            return;
+        }
+        phase = Phase.WARMING_UP;
+        // refreshing bypasses the cache and writes every answer back to it
+        deviceRepositoryService.getDevicesAsync(true, false).whenComplete((devices, e) -> {
+            if (e != null) {
+                log.warn("While warming device states up: {}", FutureResults.unwrap(e).getMessage());
+            }
+            ready();
+        });
+    }
+
+    private void ready() {
+        readyAt = System.currentTimeMillis();
+        phase = Phase.READY;
+        log.info("startup done in {} ms", readyAt - startedAt);
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    // an empty bridge only takes traffic once its first discovery is done, one with persisted devices right away
+    public boolean isAcceptingTraffic() {
+        return !empty || phase == Phase.WARMING_UP || phase == Phase.READY;
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getDiscoveredAt() {
+        return discoveredAt;
+    }
+
+    public long getReadyAt() {
+        return readyAt;
+    }
+
+    // devices reconciled by the startup discovery, -1 until it succeeded
+    public int getDiscovered() {
+        return discovered;
+    }
+
+    public String getDiscoveryError() {
+        return discoveryError;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
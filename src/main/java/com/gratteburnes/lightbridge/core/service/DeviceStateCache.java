@@ -0,0 +1,128 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.CachedDeviceState;
+import com.gratteburnes.lightbridge.core.model.DeviceWithState;
+import com.gratteburnes.lightbridge.core.model.ExpectedDeviceState;
+import com.gratteburnes.magichome.model.IDevice;
+import com.gratteburnes.magichome.model.IDeviceState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+@Slf4j
+public class DeviceStateCache {
+    // keyed by mac so entries survive renames
+    private final Map<String, CachedDeviceState> statesByMac = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final DeviceChangeLog deviceChangeLog;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter expired;
+
+    public DeviceStateCache(DeviceChangeLog deviceChangeLog, MeterRegistry meterRegistry, @Value("${lightbridge.state.cache.ttl.millis:60000}") long ttlMillis) {
+        if (ttlMillis < 1) {
+            throw new IllegalArgumentException("State cache ttl must be positive");
+        }
+        this.ttlMillis = ttlMillis;
+        this.deviceChangeLog = deviceChangeLog;
+        this.hits = lookups(meterRegistry, "hit");
+        this.misses = lookups(meterRegistry, "miss");
+        this.expired = lookups(meterRegistry, "expired");
+        Gauge.builder("lightbridge.state.cache.size", statesByMac, Map::size)
+                .description("Devices with a cached state, expired ones included")
+                .register(meterRegistry);
+    }
+
+    // hit ratio is hit over all outcomes
+    private static Counter lookups(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("lightbridge.state.cache.lookups")
+                .description("State cache lookups by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    public DeviceWithState put(IDevice device, IDeviceState deviceState) {
+        if (device == null || deviceState == null) {
+            throw new IllegalArgumentException("Device and state cannot be null");
+        }
+        CachedDeviceState cached = new CachedDeviceState(deviceState, System.currentTimeMillis());
+        CachedDeviceState previous = statesByMac.put(device.getMac(), cached);
+        DeviceWithState result = toDeviceWithState(device, cached);
+        if (previous == null || !sameState(previous.getDeviceState(), deviceState)) {
+            deviceChangeLog.recordState(result);
+        }
+        return result;
+    }
+
+    // returns null when there is no entry or the entry outlived its ttl
+    public DeviceWithState get(IDevice device) {
+        CachedDeviceState cached = statesByMac.get(device.getMac());
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+        if (isExpired(cached)) {
+            expired.increment();
+            return null;
+        }
+        hits.increment();
+        return toDeviceWithState(device, cached);
+    }
+
+    // returns the last known state regardless of its age, flagged as stale when expired
+    public DeviceWithState getAnyAge(IDevice device) {
+        CachedDeviceState cached = statesByMac.get(device.getMac());
+        return cached == null ? null : toDeviceWithState(device, cached);
+    }
+
+    public void invalidate(IDevice device) {
+        if (statesByMac.remove(device.getMac()) != null) {
+            log.debug("invalidated cached state of {}", device);
+        }
+    }
+
+    // drops the entry only if it still holds that state, a newer one is kept
+    public void invalidate(IDevice device, IDeviceState deviceState) {
+        CachedDeviceState cached = statesByMac.get(device.getMac());
+        if (cached != null && cached.getDeviceState() == deviceState && statesByMac.remove(device.getMac(), cached)) {
+            log.debug("invalidated cached state of {}", device);
+        }
+    }
+
+    public void clear() {
+        statesByMac.clear();
+    }
+
+    private boolean isExpired(CachedDeviceState cached) {
+        return cached.getAge() > ttlMillis;
+    }
+
+    private DeviceWithState toDeviceWithState(IDevice device, CachedDeviceState cached) {
+        return new DeviceWithState(device)
+                .setDeviceState(cached.getDeviceState())
+                .setStateTimestamp(cached.getTimestamp())
+                .setStale(isExpired(cached))
+                .setUnconfirmed(cached.getDeviceState() instanceof ExpectedDeviceState);
+    }
+
+    // what a client can see change, refreshing an unchanged state is not an event
+    private static boolean sameState(IDeviceState a, IDeviceState b) {
+        return a.isOn() == b.isOn()
+                && a.getRed() == b.getRed()
+                && a.getGreen() == b.getGreen()
+                && a.getBlue() == b.getBlue()
+                && a.getWarmWhite() == b.getWarmWhite()
+                && a.getCoolWhite() == b.getCoolWhite()
+                && a.getSpeed() == b.getSpeed()
+                && Objects.equals(a.getMode(), b.getMode())
+                && Objects.equals(a.getPattern(), b.getPattern());
+    }
+}
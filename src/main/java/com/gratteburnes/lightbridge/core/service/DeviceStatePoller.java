@@ -0,0 +1,48 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DeviceWithState;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Component
+@Slf4j
+@ConditionalOnProperty(value = "lightbridge.state.poll.enabled", matchIfMissing = true)
+public class DeviceStatePoller {
+    private final DeviceRepositoryService deviceRepositoryService;
+    // the scheduler thread only starts a poll, a slow one still running makes the next run skip instead of piling up
+    private final AtomicBoolean polling = new AtomicBoolean();
+
+    public DeviceStatePoller(DeviceRepositoryService deviceRepositoryService) {
+        this.deviceRepositoryService = deviceRepositoryService;
+    }
+
+    // DeviceStartupService warms the cache up, the first poll waits a full interval
+    @Scheduled(initialDelayString = "${lightbridge.state.poll.initial.delay.millis:${lightbridge.state.poll.interval.millis:30000}}",
+            fixedDelayString = "${lightbridge.state.poll.interval.millis:30000}")
+    public void poll() {
+        if (!polling.compareAndSet(false, true)) {
+            log.debug("previous state poll still running, skipping this one");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            // refreshing bypasses the cache and writes every answer back to it
+            deviceRepositoryService.getDevicesAsync(true, false).whenComplete((devices, e) -> {
+                polling.set(false);
+                if (e != null) {
+                    log.warn("While polling device states: {}", e.getMessage());
+                    return;
+                }
+                long refreshed = devices.values().stream().filter(device -> device instanceof DeviceWithState).count();
+                log.debug("polled {}/{} device states in {} ms", refreshed, devices.size(), System.currentTimeMillis() - start);
+            });
+        } catch (RuntimeException e) {
+            polling.set(false);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DiscoverySweep;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Speaks the magic home discovery protocol itself so replies can be handed out as they arrive, the lighthub
+ * discovery only returns once its whole timeout has elapsed.
+ */
+@Service
+@Slf4j
+public class DiscoveryProber {
+    static final byte[] PROBE = "HF-A11ASSISTHREAD".getBytes(StandardCharsets.US_ASCII);
+
+    static final String DEFAULT_TARGET = "255.255.255.255";
+
+    private final ExecutorService probeExecutor = Executors.newCachedThreadPool(new CustomizableThreadFactory("discovery-probe-"));
+    private final int port;
+    // broadcast addresses or interface names, interfaces are resolved on every sweep as they may come and go
+    private final List<String> targets;
+    private volatile DiscoverySweep lastSweep;
+
+    public DiscoveryProber(@Value("${lightbridge.discovery.port:48899}") int port,
+                           @Value("${lightbridge.discovery.targets:}") String targets) {
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Invalid discovery port " + port);
+        }
+        this.port = port;
+        this.targets = Arrays.stream(StringUtils.split(StringUtils.defaultString(targets), ','))
+                .map(String::trim)
+                .filter(StringUtils::isNotEmpty)
+                .distinct()
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    // false means discovery is left to the lighthub discovery on the default broadcast address
+    public boolean hasTargets() {
+        return !targets.isEmpty();
+    }
+
+    public DiscoverySweep getLastSweep() {
+        return lastSweep;
+    }
+
+    /**
+     * Probes every configured target at once, the limited broadcast address when none are, so a sweep costs one
+     * timeout whatever the number of subnets. onDevice is called once per mac across targets, from the probe threads
+     * so possibly concurrently, and returning false stops every probe.
+     */
+    public CompletableFuture<DiscoverySweep> sweep(long timeoutMillis, Predicate<IDevice> onDevice) {
+        if (onDevice == null) {
+            throw new IllegalArgumentException("Device callback cannot be null");
+        }
+        long start = System.nanoTime();
+        Map<String, IDevice> devices = new LinkedHashMap<>();
+        AtomicBoolean stopped = new AtomicBoolean();
+        List<CompletableFuture<Integer>> probes = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<DiscoverySweep.Target>> results = new ArrayList<>();
+
+        for (String target : targets.isEmpty() ? List.of(DEFAULT_TARGET) : targets) {
+            List<InetAddress> addresses;
+            try {
+                addresses = resolve(target);
+            } catch (IOException e) {
+                log.warn("skipping discovery target {}: {}", target, e.getMessage());
+                results.add(CompletableFuture.completedFuture(new DiscoverySweep.Target().setTarget(target).setError(e.getMessage())));
+                continue;
+            }
+            for (InetAddress address : addresses) {
+                if (stopped.get()) {
+                    break;
+                }
+                long targetStart = System.nanoTime();
+                AtomicInteger answered = new AtomicInteger();
+                CompletableFuture<Integer> probe = probe(address, timeoutMillis, device -> {
+                    answered.incrementAndGet();
+                    synchronized (devices) {
+                        if (stopped.get()) {
+                            return false;
+                        }
+                        if (devices.putIfAbsent(device.getMac(), device) != null) {
+                            return true;
+                        }
+                    }
+                    // outside the lock, callbacks save devices and write to clients
+                    if (onDevice.test(device)) {
+                        return true;
+                    }
+                    stopped.set(true);
+                    probes.forEach(other -> other.cancel(false));
+                    return false;
+                });
+                probes.add(probe);
+                results.add(probe.handle((found, e) -> {
+                    DiscoverySweep.Target result = new DiscoverySweep.Target()
+                            .setTarget(target)
+                            .setAddress(address.getHostAddress())
+                            .setAnswered(answered.get())
+                            .setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - targetStart));
+                    if (e != null && !(e instanceof CancellationException)) {
+                        log.warn("discovery probe to {} failed: {}", address.getHostAddress(), e.getMessage());
+                        result.setError(e.getMessage());
+                    }
+                    return result;
+                }));
+            }
+        }
+
+        return CompletableFuture.allOf(results.toArray(CompletableFuture<?>[]::new)).thenApply(done -> {
+            DiscoverySweep sweep = new DiscoverySweep()
+                    .setTimestamp(System.currentTimeMillis())
+                    .setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                    .setTargets(results.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+            synchronized (devices) {
+                sweep.setDevices(new LinkedHashMap<>(devices));
+            }
+            sweep.getTargets().forEach(target -> log.info("discovery target {} ({}): {} answered in {} ms{}",
+                    target.getTarget(), target.getAddress(), target.getAnswered(), target.getElapsedMillis(),
+                    target.getError() != null ? ", " + target.getError() : ""));
+            lastSweep = sweep;
+            return sweep;
+        });
+    }
+
+    // an ipv4 address is used as is, anything else is taken as an interface name and probed on each of its broadcast addresses
+    static List<InetAddress> resolve(String target) throws IOException {
+        if (target.indexOf('.') >= 0) {
+            return List.of(InetAddress.getByName(target));
+        }
+        NetworkInterface networkInterface = NetworkInterface.getByName(target);
+        if (networkInterface == null) {
+            throw new IOException("no network interface named " + target);
+        }
+        if (!networkInterface.isUp()) {
+            throw new IOException("network interface " + target + " is down");
+        }
+        List<InetAddress> broadcasts = networkInterface.getInterfaceAddresses().stream()
+                .map(InterfaceAddress::getBroadcast)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        if (broadcasts.isEmpty()) {
+            throw new IOException("network interface " + target + " has no ipv4 broadcast address");
+        }
+        return broadcasts;
+    }
+
+    /**
+     * Broadcasts a probe to target and passes every device that answers, once per mac, to onDevice until the timeout
+     * elapses, onDevice returns false or the returned future is cancelled. Completes with the number of devices found.
+     */
+    public CompletableFuture<Integer> probe(InetAddress target, long timeoutMillis, Predicate<IDevice> onDevice) {
+        if (target == null || onDevice == null) {
+            throw new IllegalArgumentException("Target and device callback cannot be null");
+        }
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        probeExecutor.execute(() -> {
+            try (DatagramSocket socket = new DatagramSocket()) {
+                result.whenComplete((found, e) -> socket.close());
+                result.complete(listen(socket, target, timeoutMillis, onDevice, result));
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private int listen(DatagramSocket socket, InetAddress target, long timeoutMillis, Predicate<IDevice> onDevice,
+                       CompletableFuture<Integer> result) throws IOException {
+        socket.setBroadcast(true);
+        socket.send(new DatagramPacket(PROBE, PROBE.length, new InetSocketAddress(target, port)));
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        Set<String> macs = new HashSet<>();
+        byte[] buffer = new byte[256];
+        DatagramPacket reply = new DatagramPacket(buffer, buffer.length);
+        long remaining;
+        while (!result.isDone() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            socket.setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+            reply.setLength(buffer.length);
+            try {
+                socket.receive(reply);
+            } catch (SocketTimeoutException e) {
+                break;
+            } catch (IOException e) {
+                if (result.isDone()) {
+                    break;
+                }
+                throw e;
+            }
+            IDevice device = parseReply(new String(reply.getData(), reply.getOffset(), reply.getLength(), StandardCharsets.US_ASCII));
+            if (device == null || !macs.add(device.getMac())) {
+                continue;
+            }
+            if (!onDevice.test(device)) {
+                break;
+            }
+        }
+        log.debug("discovery probe to {} found {} devices", target.getHostAddress(), macs.size());
+        return macs.size();
+    }
+
+    // replies look like ip,mac,model, model may be empty, anything else (our own broadcast echoed back included) is ignored
+    static IDevice parseReply(String reply) {
+        String[] parts = StringUtils.splitPreserveAllTokens(reply.trim(), ',');
+        if (parts.length < 2 || StringUtils.isAnyBlank(parts[0], parts[1])) {
+            return null;
+        }
+        String mac = parts[1].trim();
+        String model = parts.length > 2 ? parts[2].trim() : null;
+        // new devices are named after their model, rename them afterwards
+        return new Device().setIp(parts[0].trim()).setMac(mac).setName(StringUtils.defaultIfBlank(model, mac));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        probeExecutor.shutdownNow();
+    }
+}
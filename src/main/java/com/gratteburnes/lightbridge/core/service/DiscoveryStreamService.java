@@ -0,0 +1,87 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DiscoveredDevice;
+import com.gratteburnes.lightbridge.core.model.error.InvalidCommandException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams a discovery run as server-sent events: a "device" event per reply once it is merged into the repository,
+ * then a single "done" event with the number of devices found and how long each discovery target took.
+ */
+@Service
+@Slf4j
+public class DiscoveryStreamService {
+    private final DiscoveryProber prober;
+    private final DeviceRepositoryService deviceRepositoryService;
+    private final long timeoutMillis;
+
+    public DiscoveryStreamService(DiscoveryProber prober, DeviceRepositoryService deviceRepositoryService,
+                                  @Value("${lightbridge.discovery.timeout.seconds:5}") int timeoutSeconds) {
+        this.prober = prober;
+        this.deviceRepositoryService = deviceRepositoryService;
+        this.timeoutMillis = timeoutSeconds * 1000L;
+    }
+
+    // expected stops the run as soon as that many devices answered, null waits for the whole timeout
+    public SseEmitter stream(Integer expected) {
+        if (expected != null && expected < 1) {
+            throw new InvalidCommandException("Expected device count must be positive");
+        }
+        // leave room for the done event after the probes timed out
+        SseEmitter emitter = new SseEmitter(timeoutMillis + 5000);
+        AtomicBoolean closed = new AtomicBoolean();
+        AtomicInteger found = new AtomicInteger();
+        emitter.onTimeout(() -> closed.set(true));
+        emitter.onError(e -> closed.set(true));
+        prober.sweep(timeoutMillis, device -> {
+            // probes to several targets call in concurrently, claim a slot first so no more than expected are sent
+            int count = found.incrementAndGet();
+            if (closed.get() || (expected != null && count > expected)) {
+                return false;
+            }
+            DiscoveredDevice discovered;
+            try {
+                discovered = deviceRepositoryService.reconcileFound(device);
+            } catch (IOException e) {
+                log.error("While adding discovered device {}: {}", device, e.getMessage(), e);
+                discovered = new DiscoveredDevice(device, false, "could not be saved: " + e.getMessage());
+            }
+            try {
+                emitter.send(SseEmitter.event().name("device").data(discovered, MediaType.APPLICATION_JSON));
+            } catch (IOException | IllegalStateException e) {
+                // client went away, the devices found so far are merged already
+                log.debug("discovery stream closed: {}", e.getMessage());
+                closed.set(true);
+                return false;
+            }
+            return expected == null || count < expected;
+        }).whenComplete((sweep, e) -> {
+            if (closed.get()) {
+                return;
+            }
+            try {
+                if (e != null) {
+                    emitter.send(SseEmitter.event().name("error").data(Map.of("message", String.valueOf(e.getMessage())), MediaType.APPLICATION_JSON));
+                } else {
+                    emitter.send(SseEmitter.event().name("done").data(Map.of(
+                            "found", sweep.getDevices().size(),
+                            "elapsedMillis", sweep.getElapsedMillis(),
+                            "targets", sweep.getTargets()), MediaType.APPLICATION_JSON));
+                }
+                emitter.complete();
+            } catch (IOException | IllegalStateException sendFailure) {
+                log.debug("discovery stream closed: {}", sendFailure.getMessage());
+            }
+        });
+        return emitter;
+    }
+}
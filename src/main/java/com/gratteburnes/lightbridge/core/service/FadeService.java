@@ -0,0 +1,211 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DeviceWithMessage;
+import com.gratteburnes.lightbridge.core.model.DeviceWithState;
+import com.gratteburnes.lightbridge.core.model.FadeRequest;
+import com.gratteburnes.lightbridge.core.model.RgbWWCWColor;
+import com.gratteburnes.lightbridge.core.model.error.InvalidCommandException;
+import com.gratteburnes.lightbridge.core.model.error.UnknownDeviceException;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import com.gratteburnes.magichome.model.IDeviceState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Fades devices to a color. A single frame timer ticks every active fade and pushes the interpolated color through
+ * the latest-wins color stream, a device still busy with the previous frame skips frames so slow devices get a lower
+ * frame rate instead of a growing backlog. Starting a fade on a device replaces the one it was running.
+ */
+@Service
+@Slf4j
+public class FadeService {
+    private final DeviceRepositoryService deviceRepositoryService;
+    private final DeviceStateCache deviceStateCache;
+    private final ColorStreamService colorStreamService;
+    private final long frameMillis;
+    private final long maxDurationMillis;
+    private final Counter skippedFrames;
+
+    private final Map<String, Fade> fadesByIp = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService frameScheduler;
+    // only ticks while there are fades to run
+    private final Object tickerLock = new Object();
+    private ScheduledFuture<?> ticker;
+
+    public FadeService(DeviceRepositoryService deviceRepositoryService, DeviceStateCache deviceStateCache, ColorStreamService colorStreamService,
+                       MeterRegistry meterRegistry,
+                       @Value("${lightbridge.fade.frames.per.second:20}") int framesPerSecond,
+                       @Value("${lightbridge.fade.max.duration.millis:600000}") long maxDurationMillis) {
+        if (framesPerSecond < 1 || framesPerSecond > 1000) {
+            throw new IllegalArgumentException("Fade frame rate must be between 1 and 1000");
+        }
+        if (maxDurationMillis < 0) {
+            throw new IllegalArgumentException("Fade max duration cannot be negative");
+        }
+        this.deviceRepositoryService = deviceRepositoryService;
+        this.deviceStateCache = deviceStateCache;
+        this.colorStreamService = colorStreamService;
+        this.frameMillis = 1000 / framesPerSecond;
+        this.maxDurationMillis = maxDurationMillis;
+        this.skippedFrames = Counter.builder("lightbridge.fade.frames.skipped")
+                .description("Fade frames skipped because the device was still busy with the previous one")
+                .register(meterRegistry);
+        this.frameScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("fade-frame-"));
+    }
+
+    // results are keyed by target, unknown targets are reported and don't prevent the others from fading
+    public Map<String, IDevice> start(FadeRequest request) {
+        if (request == null || request.getTargets() == null || request.getTargets().isEmpty()) {
+            throw new InvalidCommandException("Fade targets cannot be empty");
+        }
+        if (request.getColor() == null) {
+            throw new InvalidCommandException("Color cannot be null");
+        }
+        if (request.getDurationMillis() < 0 || request.getDurationMillis() > maxDurationMillis) {
+            throw new InvalidCommandException("Fade duration must be between 0 and " + maxDurationMillis + " ms");
+        }
+        // checked up front so a bad request doesn't leave some of its targets fading
+        if (request.getTargets().stream().anyMatch(StringUtils::isBlank)) {
+            throw new InvalidCommandException("Fade target cannot be blank");
+        }
+
+        Map<String, IDevice> result = new LinkedHashMap<>();
+        long now = System.nanoTime();
+        for (String target : request.getTargets()) {
+            try {
+                IDevice device = deviceRepositoryService.findDevice(target);
+                if (device.getIp() == null) {
+                    result.put(target, new DeviceWithMessage(device, "device has no known ip"));
+                    continue;
+                }
+                Fade fade = new Fade(device, lastKnownColor(device, request.getColor()), request.getColor(),
+                        now, TimeUnit.MILLISECONDS.toNanos(request.getDurationMillis()));
+                if (fadesByIp.put(device.getIp(), fade) != null) {
+                    log.debug("replacing fade of {}", device);
+                }
+                result.put(target, new DeviceWithMessage(device, "fading over " + request.getDurationMillis() + " ms"));
+            } catch (UnknownDeviceException e) {
+                result.put(target, new DeviceWithMessage(new Device().setName(target), e.getMessage()));
+            }
+        }
+        startTicker();
+        return result;
+    }
+
+    public boolean cancel(String ipOrName) throws UnknownDeviceException {
+        IDevice device = deviceRepositoryService.findDevice(ipOrName);
+        return fadesByIp.remove(device.getIp()) != null;
+    }
+
+    // devices without a known color jump straight to the target
+    private RgbWWCWColor lastKnownColor(IDevice device, RgbWWCWColor fallback) {
+        DeviceWithState lastKnown = deviceStateCache.getAnyAge(device);
+        IDeviceState state = lastKnown != null ? lastKnown.getDeviceState() : null;
+        if (state == null) {
+            return fallback;
+        }
+        RgbWWCWColor color = new RgbWWCWColor();
+        color.setRed(state.getRed());
+        color.setGreen(state.getGreen());
+        color.setBlue(state.getBlue());
+        color.setWarmWhite(state.getWarmWhite());
+        color.setCoolWhite(state.getCoolWhite());
+        return color;
+    }
+
+    private void startTicker() {
+        synchronized (tickerLock) {
+            if (ticker == null && !fadesByIp.isEmpty()) {
+                ticker = frameScheduler.scheduleAtFixedRate(this::tick, 0, frameMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void tick() {
+        try {
+            long now = System.nanoTime();
+            fadesByIp.forEach((ip, fade) -> fade.frame(now));
+        } catch (RuntimeException e) {
+            // an exception would silently cancel the fixed rate task
+            log.error("While running fade frame: {}", e.getMessage(), e);
+        }
+        synchronized (tickerLock) {
+            if (fadesByIp.isEmpty() && ticker != null) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+        }
+    }
+
+    static RgbWWCWColor interpolate(RgbWWCWColor from, RgbWWCWColor to, double progress) {
+        RgbWWCWColor color = new RgbWWCWColor();
+        color.setRed(interpolate(from.getRed(), to.getRed(), progress));
+        color.setGreen(interpolate(from.getGreen(), to.getGreen(), progress));
+        color.setBlue(interpolate(from.getBlue(), to.getBlue(), progress));
+        color.setWarmWhite(interpolate(from.getWarmWhite(), to.getWarmWhite(), progress));
+        color.setCoolWhite(interpolate(from.getCoolWhite(), to.getCoolWhite(), progress));
+        return color;
+    }
+
+    private static int interpolate(int from, int to, double progress) {
+        return (int) Math.round(from + (to - from) * progress);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        frameScheduler.shutdownNow();
+    }
+
+    private class Fade {
+        private final IDevice device;
+        private final RgbWWCWColor from;
+        private final RgbWWCWColor to;
+        private final long startNanos;
+        private final long durationNanos;
+        // only touched by the frame thread
+        private RgbWWCWColor lastSent;
+        private CompletableFuture<Boolean> inFlight;
+
+        Fade(IDevice device, RgbWWCWColor from, RgbWWCWColor to, long startNanos, long durationNanos) {
+            this.device = device;
+            this.from = from;
+            this.to = to;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+
+        void frame(long now) {
+            double progress = durationNanos == 0 ? 1 : Math.min(1, (double) (now - startNanos) / durationNanos);
+            boolean last = progress >= 1;
+            if (!last && inFlight != null && !inFlight.isDone()) {
+                skippedFrames.increment();
+                return;
+            }
+            RgbWWCWColor color = last ? to : interpolate(from, to, progress);
+            if (last) {
+                fadesByIp.remove(device.getIp(), this);
+            }
+            if (color.equals(lastSent)) {
+                return;
+            }
+            lastSent = color;
+            inFlight = colorStreamService.push(device, color);
+            inFlight.whenComplete((sent, e) -> {
+                if (e != null && fadesByIp.remove(device.getIp(), this)) {
+                    log.warn("Stopped fading {}: {}", device, FutureResults.unwrap(e).getMessage());
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+@Slf4j
+public final class FutureResults {
+    private FutureResults() {
+    }
+
+    /**
+     * Completes once all futures are done or the deadline passed, the ones that did not complete (or failed) are
+     * replaced by onMissing. The result is assembled on executor: the deadline fires on the jdk's single delay
+     * thread, which must not run the caller's continuations. Futures still running at the deadline are cancelled,
+     * which only settles them for their callers, device io already handed to a device keeps running to its end and
+     * still reports to the circuit breaker and metrics.
+     */
+    public static <K, V> CompletableFuture<Map<K, V>> allWithin(Map<K, CompletableFuture<V>> pending, long timeoutMillis, Function<K, V> onMissing, Executor executor) {
+        return CompletableFuture.allOf(pending.values().toArray(CompletableFuture<?>[]::new))
+                .handle((ignored, e) -> true)
+                .completeOnTimeout(false, timeoutMillis, TimeUnit.MILLISECONDS)
+                .thenApplyAsync(allDone -> {
+                    if (!allDone) {
+                        log.warn("{} tasks did not all complete within {} ms, returning partial results", pending.size(), timeoutMillis);
+                    }
+                    Map<K, V> result = new HashMap<>();
+                    pending.forEach((key, future) -> {
+                        V value = future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+                        if (value == null) {
+                            future.cancel(false);
+                            value = onMissing.apply(key);
+                        }
+                        result.put(key, value);
+                    });
+                    return result;
+                }, orCommonPool(executor));
+    }
+
+    // a full executor must not fail the results that did arrive, assembling them doesn't block
+    private static Executor orCommonPool(Executor executor) {
+        return task -> {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                ForkJoinPool.commonPool().execute(task);
+            }
+        };
+    }
+
+    // dependent stages report failures wrapped in a CompletionException
+    public static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+}
@@ -1,5 +1,9 @@
 package com.gratteburnes.lightbridge.core.service;
 
+import com.gratteburnes.lightbridge.core.model.DeviceHealth;
+import com.gratteburnes.lightbridge.core.model.DiscoverySweep;
+import com.gratteburnes.lightbridge.core.model.error.DeviceBusyException;
+import com.gratteburnes.lightbridge.core.model.error.DeviceOfflineException;
 import com.gratteburnes.magichome.model.DeviceState;
 import com.gratteburnes.magichome.model.IDevice;
 import com.gratteburnes.magichome.model.error.DeviceException;
@@ -7,50 +11,228 @@ import com.gratteburnes.magichome.model.error.DiscoveryException;
 import com.gratteburnes.magichome.model.error.MessageException;
 import com.gratteburnes.magichome.service.DiscoveryService;
 import com.gratteburnes.magichome.service.MessageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.*;
 
 @Service
+@Slf4j
 public class LightbridgeService {
     private final DiscoveryService discoveryService;
 
     private final MessageService messageService;
 
+    private final DeviceCircuitBreaker circuitBreaker;
+
+    private final DeviceDispatcher dispatcher;
+
+    private final DiscoveryProber prober;
+
+    private final DeviceIoMetrics metrics;
+
     @Value("${lightbridge.discovery.timeout.seconds:5}")
     private int timeout;
 
-    public LightbridgeService(DiscoveryService discoveryService, MessageService messageService) {
+    // async variants run on a dedicated pool and wait for their retries on a timer instead of sleeping
+    private final ThreadPoolExecutor deviceIoExecutor;
+    private final ScheduledExecutorService retryScheduler;
+    private final int maxAttempts;
+    private final long backoffMillis;
+
+    // concurrent state queries for the same ip share a single device exchange
+    private final Map<String, CompletableFuture<DeviceState>> inFlightQueries = new ConcurrentHashMap<>();
+    private final Counter issuedQueries;
+    private final Counter collapsedQueries;
+
+    public LightbridgeService(DiscoveryService discoveryService, MessageService messageService, DeviceCircuitBreaker circuitBreaker, DeviceDispatcher dispatcher, DiscoveryProber prober, DeviceIoMetrics metrics, MeterRegistry meterRegistry,
+                              @Value("${lightbridge.device.io.threads:32}") int ioThreads,
+                              @Value("${lightbridge.device.io.queue:1024}") int ioQueueCapacity,
+                              @Value("${retry.maxAttempts}") int maxAttempts,
+                              @Value("${retry.backoff.seconds}") long backoffSeconds) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("Device io threads must be positive");
+        }
         this.discoveryService = discoveryService;
         this.messageService = messageService;
+        this.circuitBreaker = circuitBreaker;
+        this.dispatcher = dispatcher;
+        this.prober = prober;
+        this.metrics = metrics;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = TimeUnit.SECONDS.toMillis(Math.max(0, backoffSeconds));
+        this.deviceIoExecutor = new ThreadPoolExecutor(ioThreads, ioThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(ioQueueCapacity), new CustomizableThreadFactory("device-io-"));
+        this.deviceIoExecutor.allowCoreThreadTimeOut(true);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("device-retry-"));
+        this.issuedQueries = Counter.builder("lightbridge.state.queries")
+                .description("State queries sent to devices or joined to one already in flight")
+                .tag("outcome", "issued")
+                .register(meterRegistry);
+        this.collapsedQueries = Counter.builder("lightbridge.state.queries")
+                .description("State queries sent to devices or joined to one already in flight")
+                .tag("outcome", "collapsed")
+                .register(meterRegistry);
     }
 
-    @Retryable(value = IOException.class, maxAttemptsExpression = "${retry.maxAttempts}", backoff = @Backoff(delayExpression = "${retry.backoff.seconds}"))
+    @Retryable(value = {IOException.class, DiscoveryException.class}, maxAttemptsExpression = "${retry.maxAttempts}", backoff = @Backoff(delayExpression = "#{${retry.backoff.seconds} * 1000}"))
     public Map<String, IDevice> discover() throws DiscoveryException {
-        return discoveryService.discover(timeout);
+        long start = System.nanoTime();
+        String mode = prober.hasTargets() ? "sweep" : "lighthub";
+        try {
+            Map<String, IDevice> devices;
+            if (!prober.hasTargets()) {
+                devices = discoveryService.discover(timeout);
+            } else {
+                // every target at once, already merged by mac
+                DiscoverySweep sweep = prober.sweep(timeout * 1000L, device -> true).join();
+                if (sweep.getDevices().isEmpty() && sweep.getTargets().stream().allMatch(target -> target.getError() != null)) {
+                    throw new DiscoveryException("every discovery target failed: " + sweep.getTargets());
+                }
+                devices = sweep.getDevices();
+            }
+            metrics.recordDiscovery(mode, start, null);
+            return devices;
+        } catch (DiscoveryException | RuntimeException e) {
+            metrics.recordDiscovery(mode, start, e);
+            throw e;
+        }
+    }
+
+    public CompletableFuture<Boolean> turnDeviceOnAsync(String ip) {
+        return async("turnDeviceOn", ip, () -> messageService.turnDeviceOn(ip));
+    }
+
+    public CompletableFuture<Boolean> turnDeviceOffAsync(String ip) {
+        return async("turnDeviceOff", ip, () -> messageService.turnDeviceOff(ip));
+    }
+
+    public CompletableFuture<Boolean> changeDeviceColorAsync(int red, int green, int blue, int warmWhite, int coolWhite, String ip) {
+        return async("changeDeviceColor", ip, () -> messageService.changeDeviceColor(red, green, blue, warmWhite, coolWhite, ip));
+    }
+
+    public CompletableFuture<DeviceState> queryStateAsync(String ip) {
+        return queryStateAsync(ip, true);
+    }
+
+    /**
+     * Joins a query already in flight for the same ip unless joinInFlight is false, callers that just changed the
+     * device need an answer sent after their change. Every caller gets its own copy so cancelling it doesn't cancel
+     * the shared exchange.
+     */
+    public CompletableFuture<DeviceState> queryStateAsync(String ip, boolean joinInFlight) {
+        if (ip == null) {
+            return CompletableFuture.failedFuture(new DeviceException("device has no known ip, it was not seen by the last discovery"));
+        }
+        CompletableFuture<DeviceState> started = new CompletableFuture<>();
+        if (joinInFlight) {
+            CompletableFuture<DeviceState> inFlight = inFlightQueries.putIfAbsent(ip, started);
+            if (inFlight != null) {
+                collapsedQueries.increment();
+                return inFlight.copy();
+            }
+        } else {
+            // later callers join the fresher query
+            inFlightQueries.put(ip, started);
+        }
+        issuedQueries.increment();
+        async("queryState", ip, () -> messageService.queryState(ip)).whenComplete((state, e) -> {
+            inFlightQueries.remove(ip, started);
+            if (e != null) {
+                started.completeExceptionally(e);
+            } else {
+                started.complete(state);
+            }
+        });
+        return started.copy();
+    }
+
+    // devices with an open circuit fail fast, everything else waits its turn in the device mailbox and reports its
+    // outcome to the breaker once retries are exhausted
+    private <T> CompletableFuture<T> async(String operation, String ip, DeviceCall<T> call) {
+        if (ip == null) {
+            return CompletableFuture.failedFuture(new DeviceException("device has no known ip, it was not seen by the last discovery"));
+        }
+        long start = System.nanoTime();
+        DeviceHealth tripped = circuitBreaker.allow(ip) ? null : circuitBreaker.getHealthIfTripped(ip);
+        if (tripped != null) {
+            DeviceOfflineException offline = new DeviceOfflineException(tripped);
+            metrics.recordRequest(operation, ip, start, offline);
+            return CompletableFuture.failedFuture(offline);
+        }
+        CompletableFuture<T> result = dispatcher.submit(ip, () -> {
+            CompletableFuture<T> attempts = new CompletableFuture<>();
+            attempt(operation, call, 1, attempts);
+            return attempts;
+        });
+        return result.whenComplete((value, e) -> {
+            metrics.recordRequest(operation, ip, start, e);
+            if (e == null) {
+                circuitBreaker.recordSuccess(ip);
+            } else if (!(e instanceof RejectedExecutionException) && !(e instanceof DeviceBusyException)) {
+                circuitBreaker.recordFailure(ip, e);
+            }
+        });
+    }
+
+    private <T> void attempt(String operation, DeviceCall<T> call, int attempt, CompletableFuture<T> result) {
+        try {
+            deviceIoExecutor.execute(() -> {
+                try {
+                    result.complete(call.call());
+                } catch (Exception e) {
+                    if (isRetryable(e) && attempt < maxAttempts) {
+                        log.debug("attempt {} failed, retrying in {} ms: {}", attempt, backoffMillis, e.getMessage());
+                        metrics.recordRetry(operation);
+                        retryLater(operation, call, attempt + 1, result, e);
+                    } else {
+                        metrics.recordFailure(operation);
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("device io queue is full, rejecting request");
+            result.completeExceptionally(e);
+        }
+    }
+
+    // lighthub reports a message that couldn't be sent or answered as MessageException. A DeviceException means the
+    // device answered something unexpected, or has no known ip, another attempt won't change that
+    static boolean isRetryable(Throwable e) {
+        return e instanceof IOException || e instanceof MessageException;
     }
 
-    @Retryable(value = IOException.class, maxAttemptsExpression = "${retry.maxAttempts}", backoff = @Backoff(delayExpression = "${retry.backoff.seconds}"))
-    public boolean turnDeviceOn(String ip) throws MessageException {
-        return messageService.turnDeviceOn(ip);
+    private <T> void retryLater(String operation, DeviceCall<T> call, int attempt, CompletableFuture<T> result, Exception cause) {
+        try {
+            retryScheduler.schedule(() -> attempt(operation, call, attempt, result), backoffMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(cause);
+        }
     }
 
-    @Retryable(value = IOException.class, maxAttemptsExpression = "${retry.maxAttempts}", backoff = @Backoff(delayExpression = "${retry.backoff.seconds}"))
-    public boolean turnDeviceOff(String ip) throws MessageException {
-        return messageService.turnDeviceOff(ip);
+    // for continuations that must not run on the jdk timer thread, like results assembled at a deadline
+    public Executor getDeviceIoExecutor() {
+        return deviceIoExecutor;
     }
 
-    @Retryable(value = IOException.class, maxAttemptsExpression = "${retry.maxAttempts}", backoff = @Backoff(delayExpression = "${retry.backoff.seconds}"))
-    public boolean changeDeviceColor(int red, int green, int blue, int warmWhite, int coolWhite, String ip) throws MessageException, DeviceException {
-        return messageService.changeDeviceColor(red, green, blue, warmWhite, coolWhite, ip);
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        deviceIoExecutor.shutdownNow();
     }
 
-    @Retryable(value = IOException.class, maxAttemptsExpression = "${retry.maxAttempts}", backoff = @Backoff(delayExpression = "${retry.backoff.seconds}"))
-    public DeviceState queryState(String ip) throws MessageException, DeviceException {
-        return messageService.queryState(ip);
+    @FunctionalInterface
+    private interface DeviceCall<T> {
+        T call() throws Exception;
     }
 }
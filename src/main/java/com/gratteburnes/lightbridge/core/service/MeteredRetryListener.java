@@ -0,0 +1,47 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.retry.RetryCallback;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.listener.RetryListenerSupport;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts retries and failures of @Retryable methods, discovery being the only one left, under the same meters as the
+ * async device requests, picked up by every @Retryable as a global listener.
+ */
+@Component
+public class MeteredRetryListener extends RetryListenerSupport {
+    // retry listeners are collected while post processors are still being set up, resolving the meter registry that
+    // early would skip its customizers and meter filters
+    private final ObjectProvider<DeviceIoMetrics> deviceIoMetrics;
+
+    public MeteredRetryListener(ObjectProvider<DeviceIoMetrics> deviceIoMetrics) {
+        this.deviceIoMetrics = deviceIoMetrics;
+    }
+
+    @Override
+    public <T, E extends Throwable> void close(RetryContext context, RetryCallback<T, E> callback, Throwable throwable) {
+        DeviceIoMetrics metrics = deviceIoMetrics.getObject();
+        String operation = operation(context);
+        // the retry count includes the last failed attempt, which was not retried
+        int retries = context.getRetryCount() - (throwable != null ? 1 : 0);
+        for (int i = 0; i < retries; i++) {
+            metrics.recordRetry(operation);
+        }
+        if (throwable != null) {
+            metrics.recordFailure(operation);
+        }
+    }
+
+    // the context is named after the method signature, "public java.util.Map a.b.LightbridgeService.discover() throws ..."
+    static String operation(RetryContext context) {
+        Object name = context.getAttribute(RetryContext.NAME);
+        if (name == null) {
+            return "unknown";
+        }
+        String signature = StringUtils.substringBefore(name.toString(), "(");
+        return StringUtils.substringAfterLast(signature, ".");
+    }
+}
@@ -0,0 +1,51 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DeviceWithMessage;
+import com.gratteburnes.lightbridge.core.model.DeviceWithState;
+import com.gratteburnes.magichome.model.IDevice;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Queries device states concurrently, returning whatever answered before the overall deadline.
+ */
+@Service
+@Slf4j
+public class StateQueryService {
+    private final LightbridgeService lightbridgeService;
+    private final long timeoutMillis;
+
+    public StateQueryService(LightbridgeService lightbridgeService,
+                             @Value("${lightbridge.state.query.timeout.millis:5000}") long timeoutMillis) {
+        if (timeoutMillis < 1) {
+            throw new IllegalArgumentException("State query timeout must be positive");
+        }
+        this.lightbridgeService = lightbridgeService;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public CompletableFuture<Map<String, IDevice>> queryStates(Map<String, ? extends IDevice> devicesByKey) {
+        Map<String, CompletableFuture<IDevice>> pending = new LinkedHashMap<>();
+        devicesByKey.forEach((key, device) -> pending.put(key, queryState(key, device)));
+        return FutureResults.allWithin(pending, timeoutMillis,
+                key -> new DeviceWithMessage(devicesByKey.get(key), "state query timed out after " + timeoutMillis + " ms"),
+                lightbridgeService.getDeviceIoExecutor());
+    }
+
+    private CompletableFuture<IDevice> queryState(String key, IDevice device) {
+        return lightbridgeService.queryStateAsync(device.getIp())
+                .handle((state, e) -> {
+                    if (e != null) {
+                        Throwable cause = FutureResults.unwrap(e);
+                        log.error("While querying device state for {}: {}", key, cause.getMessage(), cause);
+                        return new DeviceWithMessage(device, cause.getMessage());
+                    }
+                    return new DeviceWithState(device).setDeviceState(state);
+                });
+    }
+}
@@ -0,0 +1,42 @@
+package com.gratteburnes.lightbridge.core.service.persistence;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DeviceMutation {
+    public enum Type {PUT, REMOVE, CLEAR}
+
+    private Type type;
+    private String key;
+    private Device device;
+
+    public static DeviceMutation put(String key, IDevice device) {
+        return new DeviceMutation(Type.PUT, key, new Device(device));
+    }
+
+    public static DeviceMutation remove(String key) {
+        return new DeviceMutation(Type.REMOVE, key, null);
+    }
+
+    public static DeviceMutation clear() {
+        return new DeviceMutation(Type.CLEAR, null, null);
+    }
+
+    public void applyTo(Map<String, Device> devices) {
+        switch (type) {
+            case PUT -> devices.put(key, device);
+            case REMOVE -> devices.remove(key);
+            case CLEAR -> devices.clear();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.gratteburnes.lightbridge.core.service.persistence;
+
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public interface DeviceStore {
+    // returns null when nothing was persisted yet
+    Map<String, Device> load() throws IOException;
+
+    // mutations describe the change, snapshot is the repository content once they are applied
+    void persist(List<DeviceMutation> mutations, Map<String, IDevice> snapshot) throws IOException;
+
+    void flush() throws IOException;
+
+    // when the oldest write that still hasn't succeeded failed, 0 while writes succeed
+    default long getFailingSince() {
+        return 0;
+    }
+
+    default String getLastError() {
+        return null;
+    }
+}
@@ -0,0 +1,204 @@
+package com.gratteburnes.lightbridge.core.service.persistence;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Appends every mutation to a journal and periodically compacts it into a snapshot. A journal record is
+ * [payload length][crc32 of payload][payload], the payload being the JSON list of mutations of one repository change.
+ * On load the snapshot is read, the journal replayed on top of it and anything after the last intact record dropped.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(value = "lightbridge.persistence.mode", havingValue = "journal")
+public class JournalDeviceStore implements DeviceStore {
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final TypeReference<List<DeviceMutation>> MUTATIONS = new TypeReference<>() {
+    };
+
+    private final ObjectMapper objectMapper;
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final int compactThreshold;
+    private final boolean fsync;
+    private final PersistenceMetrics metrics;
+
+    private FileChannel journal;
+    private int recordsSinceCompaction;
+
+    public JournalDeviceStore(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                              @Value("${lightbridge.persistence.location}") String snapshotFile,
+                              @Value("${lightbridge.persistence.journal.location:./devices.journal}") String journalFile,
+                              @Value("${lightbridge.persistence.journal.compact.threshold:1000}") int compactThreshold,
+                              @Value("${lightbridge.persistence.journal.fsync:true}") boolean fsync) {
+        if (StringUtils.isBlank(snapshotFile) || StringUtils.isBlank(journalFile)) {
+            throw new IllegalArgumentException("Snapshot and journal files cannot be blank");
+        }
+        if (compactThreshold < 1) {
+            throw new IllegalArgumentException("Compaction threshold must be positive");
+        }
+        this.objectMapper = objectMapper;
+        this.snapshotFile = Paths.get(snapshotFile).toAbsolutePath();
+        this.journalFile = Paths.get(journalFile).toAbsolutePath();
+        this.compactThreshold = compactThreshold;
+        this.fsync = fsync;
+        this.metrics = new PersistenceMetrics(meterRegistry, "journal");
+    }
+
+    @Override
+    public synchronized Map<String, Device> load() throws IOException {
+        boolean hasSnapshot = Files.isRegularFile(snapshotFile);
+        boolean hasJournal = Files.isRegularFile(journalFile) && Files.size(journalFile) > 0;
+
+        Map<String, Device> devices = new TreeMap<>();
+        if (hasSnapshot) {
+            devices.putAll(objectMapper.readValue(Files.readAllBytes(snapshotFile), new TypeReference<Map<String, Device>>() {
+            }));
+        }
+        openJournal();
+        int replayed = replay(devices);
+        log.info("loaded {} devices from snapshot and {} journal records", devices.size(), replayed);
+
+        if (replayed > 0) {
+            compact(devices);
+        }
+        return hasSnapshot || hasJournal ? devices : null;
+    }
+
+    @Override
+    public synchronized void persist(List<DeviceMutation> mutations, Map<String, IDevice> snapshot) throws IOException {
+        if (journal == null) {
+            openJournal();
+        }
+        long start = System.nanoTime();
+        byte[] payload = objectMapper.writeValueAsBytes(mutations);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length)
+                .putInt(payload.length)
+                .putInt(checksum(payload))
+                .put(payload)
+                .flip();
+        long position = journal.position();
+        try {
+            while (record.hasRemaining()) {
+                journal.write(record);
+            }
+            if (fsync) {
+                journal.force(false);
+            }
+        } catch (IOException e) {
+            // don't leave a torn record in front of the next ones
+            journal.truncate(position);
+            journal.position(position);
+            throw e;
+        }
+        metrics.recordWrite("journal", start, HEADER_SIZE + payload.length);
+        if (++recordsSinceCompaction >= compactThreshold) {
+            compact(snapshot);
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (journal != null) {
+            journal.force(false);
+        }
+    }
+
+    private void openJournal() throws IOException {
+        if (journal == null) {
+            Files.createDirectories(journalFile.getParent());
+            journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+    }
+
+    // applies intact records in order, truncating a torn or corrupt tail left by a crash
+    private int replay(Map<String, Device> devices) throws IOException {
+        long size = journal.size();
+        long position = 0;
+        int replayed = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, position);
+            int length = header.flip().getInt();
+            int crc = header.getInt();
+            if (length < 0 || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + HEADER_SIZE);
+            if (checksum(payload.array()) != crc) {
+                break;
+            }
+            for (DeviceMutation mutation : objectMapper.readValue(payload.array(), MUTATIONS)) {
+                mutation.applyTo(devices);
+            }
+            position += HEADER_SIZE + length;
+            replayed++;
+        }
+        if (position < size) {
+            log.warn("dropping {} bytes of incomplete or corrupt journal records from {}", size - position, journalFile);
+            journal.truncate(position);
+        }
+        journal.position(position);
+        return replayed;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (journal.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of journal " + journalFile);
+            }
+        }
+    }
+
+    // the snapshot is durable before the journal is emptied, replaying a journal over a newer snapshot is harmless
+    private void compact(Map<String, ? extends IDevice> devices) throws IOException {
+        long start = System.nanoTime();
+        byte[] bytes = objectMapper.writeValueAsBytes(devices);
+        AtomicFileWriter.write(snapshotFile, bytes);
+        journal.truncate(0);
+        journal.position(0);
+        journal.force(true);
+        recordsSinceCompaction = 0;
+        metrics.recordWrite("compaction", start, bytes.length);
+        log.debug("compacted {} devices into {} in {} ms", devices.size(), snapshotFile, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.force(true);
+            journal.close();
+            journal = null;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.gratteburnes.lightbridge.core.service.persistence;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Write-behind persistence of the whole device map. Snapshots handed over within the coalescing window
+ * result in a single write of the latest one. A failed write keeps its snapshot pending, unless a newer one came in,
+ * and is retried with a doubling backoff. Until a write succeeds again the failure shows in the failure counter and
+ * the devicePersistence health.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(value = "lightbridge.persistence.mode", havingValue = "json", matchIfMissing = true)
+public class JsonFileDeviceStore implements DeviceStore {
+    private final ObjectMapper objectMapper;
+    private final Path deviceFile;
+    private final long coalesceMillis;
+    private final long retryMaxMillis;
+    private final ScheduledExecutorService scheduler;
+    private final PersistenceMetrics metrics;
+
+    private final AtomicReference<Map<String, IDevice>> pending = new AtomicReference<>();
+    private final Object flushLock = new Object();
+    // guarded by flushLock
+    private long retryMillis;
+    private volatile long failingSince;
+    private volatile String lastError;
+
+    public JsonFileDeviceStore(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                               @Value("${lightbridge.persistence.location}") String deviceFile,
+                               @Value("${lightbridge.persistence.coalesce.millis:500}") long coalesceMillis,
+                               @Value("${lightbridge.persistence.retry.max.millis:60000}") long retryMaxMillis) {
+        if (StringUtils.isBlank(deviceFile)) {
+            throw new IllegalArgumentException("Device file cannot be blank");
+        }
+        this.objectMapper = objectMapper;
+        this.deviceFile = Paths.get(deviceFile).toAbsolutePath();
+        this.coalesceMillis = Math.max(0, coalesceMillis);
+        this.retryMaxMillis = Math.max(1, retryMaxMillis);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("device-persister-"));
+        this.metrics = new PersistenceMetrics(meterRegistry, "json");
+    }
+
+    @Override
+    public Map<String, Device> load() throws IOException {
+        if (!Files.isRegularFile(deviceFile) || !Files.isReadable(deviceFile)) {
+            return null;
+        }
+        return objectMapper.readValue(Files.readAllBytes(deviceFile), new TypeReference<Map<String, Device>>() {
+        });
+    }
+
+    @Override
+    public void persist(List<DeviceMutation> mutations, Map<String, IDevice> snapshot) {
+        // only the first snapshot of a window schedules a write, later ones just replace what will be written
+        if (pending.getAndSet(snapshot) == null) {
+            scheduler.schedule(this::flushQuietly, coalesceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            Map<String, IDevice> snapshot = pending.getAndSet(null);
+            if (snapshot == null) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                byte[] bytes = objectMapper.writeValueAsBytes(snapshot);
+                AtomicFileWriter.write(deviceFile, bytes);
+                metrics.recordWrite("snapshot", start, bytes.length);
+                log.debug("persisted {} devices ({} bytes) in {} ms", snapshot.size(), bytes.length, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (IOException | RuntimeException e) {
+                // a newer snapshot supersedes the one that failed
+                pending.compareAndSet(null, snapshot);
+                metrics.recordFailure("snapshot");
+                if (failingSince == 0) {
+                    failingSince = System.currentTimeMillis();
+                }
+                lastError = e.getMessage();
+                throw e;
+            }
+            if (failingSince != 0) {
+                log.info("persisting devices to {} works again", deviceFile);
+            }
+            failingSince = 0;
+            lastError = null;
+            retryMillis = 0;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            long delay;
+            synchronized (flushLock) {
+                retryMillis = Math.min(retryMaxMillis, Math.max(Math.max(coalesceMillis, 100), retryMillis * 2));
+                delay = retryMillis;
+            }
+            log.error("While persisting devices to {}, retrying in {} ms: {}", deviceFile, delay, e.getMessage(), e);
+            try {
+                scheduler.schedule(this::flushQuietly, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException rejected) {
+                log.warn("not retrying, shutting down");
+            }
+        }
+    }
+
+    @Override
+    public long getFailingSince() {
+        return failingSince;
+    }
+
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        scheduler.shutdown();
+        flush();
+    }
+}
@@ -0,0 +1,44 @@
+package com.gratteburnes.lightbridge.core.service.persistence;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+// write duration, size and failures per store and kind of write: snapshot, journal record or compaction
+final class PersistenceMetrics {
+    private final MeterRegistry meterRegistry;
+    private final String store;
+
+    PersistenceMetrics(MeterRegistry meterRegistry, String store) {
+        this.meterRegistry = meterRegistry;
+        this.store = store;
+    }
+
+    void recordWrite(String kind, long startNanos, int bytes) {
+        Timer.builder("lightbridge.persistence.write")
+                .description("Device persistence writes, fsync included")
+                .tag("store", store)
+                .tag("kind", kind)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("lightbridge.persistence.write.size")
+                .description("Bytes written per device persistence write")
+                .baseUnit("bytes")
+                .tag("store", store)
+                .tag("kind", kind)
+                .register(meterRegistry)
+                .record(bytes);
+    }
+
+    void recordFailure(String kind) {
+        Counter.builder("lightbridge.persistence.write.failures")
+                .description("Device persistence writes that failed")
+                .tag("store", store)
+                .tag("kind", kind)
+                .register(meterRegistry)
+                .increment();
+    }
+}
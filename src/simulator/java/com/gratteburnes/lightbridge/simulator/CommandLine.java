@@ -0,0 +1,39 @@
+package com.gratteburnes.lightbridge.simulator;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// --name value pairs, anything else is rejected so typos don't silently fall back to defaults
+final class CommandLine {
+    private final Map<String, String> options = new HashMap<>();
+
+    CommandLine(String[] args, String... known) {
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value pairs, got " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (!List.of(known).contains(name)) {
+                throw new IllegalArgumentException("Unknown option --" + name + ", expected one of " + String.join(", ", known));
+            }
+            options.put(name, args[++i]);
+        }
+    }
+
+    String get(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    int getInt(String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+    long getLong(String name, long defaultValue) {
+        return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+    }
+
+    double getDouble(String name, double defaultValue) {
+        return options.containsKey(name) ? Double.parseDouble(options.get(name)) : defaultValue;
+    }
+}
@@ -0,0 +1,41 @@
+package com.gratteburnes.lightbridge.simulator;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// network conditions every simulated device answers under
+class Conditions {
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double loss;
+
+    Conditions(long latencyMillis, long jitterMillis, double loss) {
+        if (latencyMillis < 0 || jitterMillis < 0 || loss < 0 || loss > 1) {
+            throw new IllegalArgumentException("Latency and jitter must not be negative, loss must be within [0, 1]");
+        }
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.loss = loss;
+    }
+
+    // latency plus or minus up to jitter, never negative
+    long nextDelayMillis() {
+        long jitter = jitterMillis == 0 ? 0 : ThreadLocalRandom.current().nextLong(-jitterMillis, jitterMillis + 1);
+        return Math.max(0, latencyMillis + jitter);
+    }
+
+    void delay() throws InterruptedException {
+        long delay = nextDelayMillis();
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    boolean drop() {
+        return loss > 0 && ThreadLocalRandom.current().nextDouble() < loss;
+    }
+
+    @Override
+    public String toString() {
+        return latencyMillis + "+/-" + jitterMillis + " ms, " + (loss * 100) + "% loss";
+    }
+}
@@ -0,0 +1,163 @@
+package com.gratteburnes.lightbridge.simulator;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Spawns virtual magic home devices on consecutive loopback addresses, each accepting control connections on its own
+ * address, and answers discovery probes for every online one. Point lightbridge at it with
+ * lightbridge.discovery.targets=127.0.0.1 and lightbridge.discovery.port set to the discovery port.
+ *
+ * <pre>
+ * mvn -Psimulator test-compile exec:exec -Dsimulator.args="--devices 200 --latency-ms 20 --jitter-ms 10 --loss 0.01"
+ * </pre>
+ */
+@Slf4j
+public class DeviceSimulator {
+    private static final String PROBE = "HF-A11ASSISTHREAD";
+
+    private final List<VirtualDevice> devices = new ArrayList<>();
+    private final Conditions conditions;
+    private final int discoveryPort;
+    private final ExecutorService executor = Executors.newCachedThreadPool(daemon("virtual-device-"));
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, daemon("simulator-"));
+    private DatagramSocket discoverySocket;
+
+    DeviceSimulator(int count, String baseIp, int discoveryPort, Conditions conditions) throws IOException {
+        if (count < 1 || count > 65000) {
+            throw new IllegalArgumentException("Device count must be within [1, 65000]");
+        }
+        this.conditions = conditions;
+        this.discoveryPort = discoveryPort;
+        byte[] base = InetAddress.getByName(baseIp).getAddress();
+        if ((base[0] & 0xFF) != 127) {
+            throw new IllegalArgumentException("Virtual devices live on loopback, base ip must be within 127.0.0.0/8");
+        }
+        int address = ((base[1] & 0xFF) << 16) | ((base[2] & 0xFF) << 8) | (base[3] & 0xFF);
+        for (int i = 0; i < count; address++) {
+            // skip .0 and .255, lightbridge does not take .255 for a device ip
+            if ((address & 0xFF) == 0 || (address & 0xFF) == 255) {
+                continue;
+            }
+            if (address > 0xFFFFFF) {
+                throw new IllegalArgumentException("Not enough loopback addresses after " + baseIp);
+            }
+            String ip = "127." + ((address >> 16) & 0xFF) + "." + ((address >> 8) & 0xFF) + "." + (address & 0xFF);
+            devices.add(new VirtualDevice(ip, String.format("5CCF7F%06X", i), conditions, executor));
+            i++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLine options = new CommandLine(args, "devices", "base-ip", "discovery-port", "latency-ms", "jitter-ms",
+                "loss", "offline", "flap-ms");
+        DeviceSimulator simulator = new DeviceSimulator(
+                options.getInt("devices", 100),
+                options.get("base-ip", "127.0.1.1"),
+                options.getInt("discovery-port", 48899),
+                new Conditions(options.getLong("latency-ms", 5), options.getLong("jitter-ms", 0), options.getDouble("loss", 0)));
+        simulator.start(options.getDouble("offline", 0), options.getLong("flap-ms", 0));
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::stop));
+        Thread.currentThread().join();
+    }
+
+    /**
+     * Starts every device, leaving the offline fraction of them down. With flapMillis above zero a random device
+     * goes down or comes back up at that interval.
+     */
+    void start(double offline, long flapMillis) throws IOException {
+        if (offline < 0 || offline > 1) {
+            throw new IllegalArgumentException("Offline fraction must be within [0, 1]");
+        }
+        int down = (int) Math.round(devices.size() * offline);
+        for (int i = 0; i < devices.size(); i++) {
+            VirtualDevice device = devices.get(i);
+            if (i < devices.size() - down) {
+                device.start();
+            } else {
+                device.setOffline(true);
+            }
+        }
+        discoverySocket = new DatagramSocket(null);
+        discoverySocket.setReuseAddress(true);
+        discoverySocket.bind(new InetSocketAddress(discoveryPort));
+        executor.execute(this::answerProbes);
+        if (flapMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::flap, flapMillis, flapMillis, TimeUnit.MILLISECONDS);
+        }
+        log.info("{} virtual devices on {} to {}, {} offline, discovery on udp {}, {}", devices.size(),
+                devices.get(0).getIp(), devices.get(devices.size() - 1).getIp(), down, discoveryPort, conditions);
+    }
+
+    void stop() {
+        if (discoverySocket != null) {
+            discoverySocket.close();
+        }
+        for (VirtualDevice device : devices) {
+            try {
+                device.stop();
+            } catch (IOException e) {
+                log.debug("while stopping {}: {}", device.getIp(), e.getMessage());
+            }
+        }
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private void answerProbes() {
+        byte[] buffer = new byte[64];
+        while (!discoverySocket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                discoverySocket.receive(packet);
+            } catch (IOException e) {
+                return;
+            }
+            String message = new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.US_ASCII).trim();
+            if (PROBE.equals(message)) {
+                SocketAddress sender = packet.getSocketAddress();
+                for (VirtualDevice device : devices) {
+                    if (!device.isOffline() && !conditions.drop()) {
+                        scheduler.schedule(() -> reply(device, sender), conditions.nextDelayMillis(), TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        }
+    }
+
+    private void reply(VirtualDevice device, SocketAddress sender) {
+        byte[] reply = (device.getIp() + "," + device.getMac() + "," + VirtualDevice.MODEL).getBytes(StandardCharsets.US_ASCII);
+        try {
+            discoverySocket.send(new DatagramPacket(reply, reply.length, sender));
+        } catch (IOException e) {
+            log.debug("discovery reply from {} failed: {}", device.getIp(), e.getMessage());
+        }
+    }
+
+    private void flap() {
+        VirtualDevice device = devices.get(ThreadLocalRandom.current().nextInt(devices.size()));
+        try {
+            device.setOffline(!device.isOffline());
+            log.info("{} is now {}", device.getIp(), device.isOffline() ? "offline" : "online");
+        } catch (IOException e) {
+            log.warn("could not flap {}: {}", device.getIp(), e.getMessage());
+        }
+    }
+
+    private static ThreadFactory daemon(String prefix) {
+        CustomizableThreadFactory factory = new CustomizableThreadFactory(prefix);
+        factory.setDaemon(true);
+        return factory;
+    }
+}
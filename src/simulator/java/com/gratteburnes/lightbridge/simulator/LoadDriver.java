@@ -0,0 +1,210 @@
+package com.gratteburnes.lightbridge.simulator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Hammers a running lightbridge with a weighted mix of requests from concurrent workers for a while, then reports
+ * throughput and latency percentiles per endpoint. Requests made during the warmup are not counted.
+ *
+ * <pre>
+ * mvn -Psimulator test-compile exec:exec -Dsimulator.main=LoadDriver -Dsimulator.args="--concurrency 32 --duration-seconds 60"
+ * </pre>
+ */
+@Slf4j
+public class LoadDriver {
+    private static final String DEFAULT_MIX = "devices=4,devicesWithState=2,device=4,state=2,on=1,off=1,color=1";
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final Duration timeout;
+    private final List<Endpoint> mix = new ArrayList<>();
+    private final Map<String, Stats> stats = new TreeMap<>();
+    private List<String> ips;
+    private List<String> names;
+
+    LoadDriver(String baseUrl, Duration timeout, String mix) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+        Map<String, Endpoint> endpoints = endpoints();
+        for (String entry : mix.split(",")) {
+            String[] weighted = entry.trim().split("=");
+            Endpoint endpoint = endpoints.get(weighted[0]);
+            if (endpoint == null || weighted.length != 2) {
+                throw new IllegalArgumentException("Unknown mix entry " + entry + ", endpoints are " + endpoints.keySet());
+            }
+            for (int i = Integer.parseInt(weighted[1]); i > 0; i--) {
+                this.mix.add(endpoint);
+            }
+            stats.put(endpoint.name, new Stats());
+        }
+        if (this.mix.isEmpty()) {
+            throw new IllegalArgumentException("Mix must weigh at least one endpoint");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLine options = new CommandLine(args, "base-url", "concurrency", "duration-seconds", "warmup-seconds",
+                "timeout-ms", "mix");
+        LoadDriver driver = new LoadDriver(
+                options.get("base-url", "http://localhost:8080/lightbridge/v1"),
+                Duration.ofMillis(options.getLong("timeout-ms", 10000)),
+                options.get("mix", DEFAULT_MIX));
+        driver.loadDevices();
+        driver.run(options.getInt("concurrency", 16),
+                TimeUnit.SECONDS.toMillis(options.getLong("warmup-seconds", 5)),
+                TimeUnit.SECONDS.toMillis(options.getLong("duration-seconds", 30)));
+        System.out.println(driver.report(options.getLong("duration-seconds", 30)));
+    }
+
+    private Map<String, Endpoint> endpoints() {
+        Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+        for (Endpoint endpoint : List.of(
+                new Endpoint("devices", "GET", random -> "/devices"),
+                new Endpoint("devicesWithState", "GET", random -> "/devices?state=true&cache=true"),
+                new Endpoint("device", "GET", random -> "/device/" + pick(names, random) + "?state=true&cache=true"),
+                new Endpoint("state", "GET", random -> "/" + pick(ips, random) + "/state"),
+                new Endpoint("on", "PUT", random -> "/" + pick(ips, random) + "/on"),
+                new Endpoint("off", "PUT", random -> "/" + pick(ips, random) + "/off"),
+                new Endpoint("color", "PUT", random -> "/" + pick(ips, random) + "/color"))) {
+            endpoints.put(endpoint.name, endpoint);
+        }
+        return endpoints;
+    }
+
+    // targets are the devices lightbridge knows about, with an ip
+    void loadDevices() throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/devices")).timeout(timeout).build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Listing devices answered " + response.statusCode() + ": " + response.body());
+        }
+        ips = new ArrayList<>();
+        names = new ArrayList<>();
+        for (JsonNode device : new ObjectMapper().readTree(response.body()).path("devices")) {
+            if (device.hasNonNull("ip")) {
+                ips.add(device.get("ip").asText());
+                names.add(URLEncoder.encode(device.path("name").asText(), StandardCharsets.UTF_8).replace("+", "%20"));
+            }
+        }
+        if (ips.isEmpty()) {
+            throw new IllegalStateException("Lightbridge knows no device with an ip, run discovery against the simulator first");
+        }
+        log.info("driving load against {} devices", ips.size());
+    }
+
+    void run(int concurrency, long warmupMillis, long durationMillis) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long measureFrom = start + warmupMillis;
+        long until = measureFrom + durationMillis;
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, new CustomizableThreadFactory("load-"));
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long now;
+                while ((now = System.currentTimeMillis()) < until) {
+                    Endpoint endpoint = mix.get(random.nextInt(mix.size()));
+                    long sent = System.nanoTime();
+                    int status = send(endpoint, random);
+                    if (now >= measureFrom) {
+                        stats.get(endpoint.name).record(System.nanoTime() - sent, status);
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(warmupMillis + durationMillis + timeout.toMillis() + 1000, TimeUnit.MILLISECONDS);
+    }
+
+    // the http status, 0 when the request failed without one
+    private int send(Endpoint endpoint, Random random) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + endpoint.path.apply(random))).timeout(timeout);
+        if ("PUT".equals(endpoint.method)) {
+            String body = "color".equals(endpoint.name)
+                    ? String.format("{\"red\":%d,\"green\":%d,\"blue\":%d,\"warmWhite\":0,\"coolWhite\":0}", random.nextInt(256), random.nextInt(256), random.nextInt(256))
+                    : "";
+            request.header("Content-Type", "application/json").PUT(HttpRequest.BodyPublishers.ofString(body));
+        }
+        try {
+            return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (Exception e) {
+            log.debug("{} failed: {}", endpoint.name, e.getMessage());
+            return 0;
+        }
+    }
+
+    String report(long durationSeconds) {
+        StringBuilder report = new StringBuilder(String.format("%n%-18s %9s %8s %9s %9s %9s %9s %9s  %s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "statuses"));
+        stats.forEach((name, endpointStats) -> report.append(endpointStats.line(name, durationSeconds)));
+        return report.toString();
+    }
+
+    private static String pick(List<String> values, Random random) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+    private static class Endpoint {
+        private final String name;
+        private final String method;
+        private final Function<Random, String> path;
+
+        Endpoint(String name, String method, Function<Random, String> path) {
+            this.name = name;
+            this.method = method;
+            this.path = path;
+        }
+    }
+
+    private static class Stats {
+        private long[] latencies = new long[1024];
+        private int count;
+        private int errors;
+        private final Map<Integer, Integer> statuses = new TreeMap<>();
+
+        synchronized void record(long nanos, int status) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            statuses.merge(status, 1, Integer::sum);
+            if (status < 200 || status >= 300) {
+                errors++;
+            }
+        }
+
+        synchronized String line(String name, long durationSeconds) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return String.format("%-18s %9d %8d %9.1f %9.1f %9.1f %9.1f %9.1f  %s%n", name, count, errors,
+                    (double) count / Math.max(1, durationSeconds),
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), percentile(sorted, 1.0),
+                    statuses);
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1_000_000.0;
+        }
+    }
+}
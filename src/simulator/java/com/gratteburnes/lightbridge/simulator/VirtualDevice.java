@@ -0,0 +1,203 @@
+package com.gratteburnes.lightbridge.simulator;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * One simulated bulb listening on its own loopback address, speaking the magic home control protocol: power
+ * (0x71), state query (0x81) and color (0x31) messages, each followed by a checksum byte.
+ */
+@Slf4j
+class VirtualDevice {
+    static final int CONTROL_PORT = 5577;
+    static final String MODEL = "AK001-ZJ2101";
+
+    private static final int POWER_ON = 0x23;
+    private static final int POWER_OFF = 0x24;
+    // the last flag byte asks the device to answer
+    private static final int REMOTE = 0x0F;
+
+    private final String ip;
+    private final String mac;
+    private final Conditions conditions;
+    private final ExecutorService executor;
+
+    private volatile ServerSocket serverSocket;
+    private volatile boolean offline;
+
+    // guarded by this
+    private boolean on;
+    private int red;
+    private int green;
+    private int blue;
+    private int warmWhite;
+    private int coolWhite;
+
+    VirtualDevice(String ip, String mac, Conditions conditions, ExecutorService executor) {
+        this.ip = ip;
+        this.mac = mac;
+        this.conditions = conditions;
+        this.executor = executor;
+    }
+
+    String getIp() {
+        return ip;
+    }
+
+    String getMac() {
+        return mac;
+    }
+
+    boolean isOffline() {
+        return offline;
+    }
+
+    // offline devices refuse connections and don't answer discovery
+    synchronized void setOffline(boolean offline) throws IOException {
+        if (offline == this.offline) {
+            return;
+        }
+        this.offline = offline;
+        if (offline) {
+            stop();
+            serverSocket = null;
+        } else {
+            start();
+        }
+    }
+
+    synchronized void start() throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(InetAddress.getByName(ip), CONTROL_PORT), 50);
+        serverSocket = socket;
+        executor.execute(() -> accept(socket));
+    }
+
+    void stop() throws IOException {
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    private void accept(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                executor.execute(() -> serve(connection));
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    log.warn("{} stopped accepting: {}", ip, e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try (connection) {
+            DataInputStream in = new DataInputStream(connection.getInputStream());
+            OutputStream out = connection.getOutputStream();
+            while (!offline) {
+                int opcode;
+                try {
+                    opcode = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                byte[] reply = handle(opcode, in);
+                if (conditions.drop()) {
+                    // lost on the way, the client times out
+                    continue;
+                }
+                conditions.delay();
+                if (reply != null) {
+                    out.write(reply);
+                    out.flush();
+                }
+            }
+        } catch (SocketException e) {
+            log.trace("{} connection closed: {}", ip, e.getMessage());
+        } catch (IOException | InterruptedException e) {
+            log.debug("{} connection failed: {}", ip, e.getMessage());
+        }
+    }
+
+    private byte[] handle(int opcode, DataInputStream in) throws IOException {
+        switch (opcode) {
+            case 0x71: {
+                byte[] message = read(opcode, in, 4);
+                int power = message[1] & 0xFF;
+                synchronized (this) {
+                    on = power == POWER_ON;
+                }
+                return (message[2] & 0xFF) == REMOTE ? withChecksum(0xF0, 0x71, power) : null;
+            }
+            case 0x81:
+                read(opcode, in, 4);
+                return stateReply();
+            case 0x31: {
+                // rgb + warm white is 8 bytes, rgb + warm and cool white 9, tell them apart by the checksum
+                byte[] message = read(opcode, in, 8);
+                if (!checksumMatches(message, 8)) {
+                    byte[] longer = new byte[9];
+                    System.arraycopy(message, 0, longer, 0, 8);
+                    longer[8] = in.readByte();
+                    message = longer;
+                }
+                synchronized (this) {
+                    red = message[1] & 0xFF;
+                    green = message[2] & 0xFF;
+                    blue = message[3] & 0xFF;
+                    warmWhite = message[4] & 0xFF;
+                    coolWhite = message.length == 9 ? message[5] & 0xFF : 0;
+                }
+                return null;
+            }
+            default:
+                throw new IOException(String.format("unknown opcode 0x%02X", opcode));
+        }
+    }
+
+    private synchronized byte[] stateReply() {
+        return withChecksum(0x81, 0x25, on ? POWER_ON : POWER_OFF, 0x61, 0x21, 0x10,
+                red, green, blue, warmWhite, 0x04, coolWhite, 0xF0);
+    }
+
+    private static byte[] read(int opcode, DataInputStream in, int length) throws IOException {
+        byte[] message = new byte[length];
+        message[0] = (byte) opcode;
+        in.readFully(message, 1, length - 1);
+        return message;
+    }
+
+    private static boolean checksumMatches(byte[] message, int length) {
+        int sum = 0;
+        for (int i = 0; i < length - 1; i++) {
+            sum += message[i] & 0xFF;
+        }
+        return (sum & 0xFF) == (message[length - 1] & 0xFF);
+    }
+
+    static byte[] withChecksum(int... bytes) {
+        byte[] message = new byte[bytes.length + 1];
+        int sum = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            message[i] = (byte) bytes[i];
+            sum += bytes[i];
+        }
+        message[bytes.length] = (byte) sum;
+        return message;
+    }
+}
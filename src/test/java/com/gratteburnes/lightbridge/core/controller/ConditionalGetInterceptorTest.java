@@ -0,0 +1,123 @@
+package com.gratteburnes.lightbridge.core.controller;
+
+import com.gratteburnes.lightbridge.core.service.RepositoryFixture;
+import com.gratteburnes.magichome.model.DeviceState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.Map;
+
+import static com.gratteburnes.lightbridge.core.service.RepositoryFixture.device;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConditionalGetInterceptorTest {
+    private RepositoryFixture fixture;
+    private ConditionalGetInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fixture = new RepositoryFixture(
+                device("192.168.1.10", "5CCF7F000001", "bedroom"),
+                device("192.168.1.11", "5CCF7F000002", "kitchen"));
+        interceptor = new ConditionalGetInterceptor(fixture.changeLog, fixture.repository);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void listingIsNotModifiedUntilADeviceChanges() throws Exception {
+        String etag = etag(devices(), null);
+        assertNotNull(etag);
+
+        MockHttpServletResponse notModified = new MockHttpServletResponse();
+        assertFalse(handle(devices(), etag, notModified));
+        assertEquals(304, notModified.getStatus());
+
+        fixture.repository.renameDevice("kitchen", "pantry");
+        MockHttpServletResponse modified = new MockHttpServletResponse();
+        assertTrue(handle(devices(), etag, modified));
+        assertEquals(200, modified.getStatus());
+        assertNotEquals(etag, modified.getHeader("ETag"));
+    }
+
+    @Test
+    void deviceTagOnlyChangesWithThatDevice() throws Exception {
+        String etag = etag(deviceRequest("bedroom"), null);
+        assertNotNull(etag);
+
+        fixture.repository.renameDevice("kitchen", "pantry");
+        MockHttpServletResponse unchanged = new MockHttpServletResponse();
+        assertFalse(handle(deviceRequest("bedroom"), etag, unchanged));
+        assertEquals(304, unchanged.getStatus());
+
+        fixture.repository.renameDevice("bedroom", "guest room");
+        MockHttpServletResponse changed = new MockHttpServletResponse();
+        assertTrue(handle(deviceRequest("guest room"), etag, changed));
+        assertEquals(200, changed.getStatus());
+    }
+
+    @Test
+    void responsesWithStateHaveNoTag() throws Exception {
+        for (String cache : new String[]{"true", "false"}) {
+            MockHttpServletRequest listing = devices();
+            listing.setParameter("state", "true");
+            listing.setParameter("cache", cache);
+            assertNull(etag(listing, null));
+
+            MockHttpServletRequest single = deviceRequest("bedroom");
+            single.setParameter("state", "true");
+            single.setParameter("cache", cache);
+            assertNull(etag(single, null));
+        }
+        // a cached state answers with state too, and still no tag
+        fixture.stateCache.put(fixture.repository.findDevice("bedroom"), new DeviceState());
+        MockHttpServletRequest cached = deviceRequest("bedroom");
+        cached.setParameter("state", "true");
+        cached.setParameter("cache", "true");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(handle(cached, "\"*\"", response));
+        assertNull(response.getHeader("ETag"));
+    }
+
+    @Test
+    void unknownDevicesAndBadSinceHaveNoTag() throws Exception {
+        assertNull(etag(deviceRequest("garage"), null));
+        MockHttpServletRequest badSince = devices();
+        badSince.setParameter("since", "yesterday");
+        assertNull(etag(badSince, null));
+
+        MockHttpServletRequest since = devices();
+        since.setParameter("since", "12");
+        assertNotEquals(etag(devices(), null), etag(since, null));
+    }
+
+    private String etag(MockHttpServletRequest request, String ifNoneMatch) {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertTrue(handle(request, ifNoneMatch, response));
+        return response.getHeader("ETag");
+    }
+
+    private boolean handle(MockHttpServletRequest request, String ifNoneMatch, MockHttpServletResponse response) {
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        return interceptor.preHandle(request, response, null);
+    }
+
+    private static MockHttpServletRequest devices() {
+        return new MockHttpServletRequest("GET", ConditionalGetInterceptor.DEVICES_PATH);
+    }
+
+    private static MockHttpServletRequest deviceRequest(String ipOrName) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/lightbridge/v1/device/" + ipOrName);
+        request.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, Map.of("ipOrName", ipOrName));
+        return request;
+    }
+}
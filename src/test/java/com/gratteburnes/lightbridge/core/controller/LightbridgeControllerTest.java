@@ -0,0 +1,70 @@
+package com.gratteburnes.lightbridge.core.controller;
+
+import com.gratteburnes.lightbridge.core.service.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static com.gratteburnes.lightbridge.core.service.RepositoryFixture.device;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class LightbridgeControllerTest {
+    private RepositoryFixture fixture;
+    private FadeService fadeService;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fixture = new RepositoryFixture(device("192.168.1.10", "5CCF7F000001", "bedroom"));
+        ColorStreamService colorStreamService = new ColorStreamService(fixture.lightbridgeService, fixture.stateCache, fixture.meterRegistry);
+        fadeService = new FadeService(fixture.repository, fixture.stateCache, colorStreamService, fixture.meterRegistry, 20, 60000);
+        LightbridgeController controller = new LightbridgeController(fixture.lightbridgeService, fixture.repository,
+                new DeviceCommandService(fixture.lightbridgeService, fixture.repository, fixture.stateCache, fixture.circuitBreaker, 1000),
+                fadeService, fixture.deviceEventService,
+                new DiscoveryStreamService(new DiscoveryProber(48899, ""), fixture.repository, 1), "devices.json");
+        mvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        fadeService.shutdown();
+        fixture.close();
+    }
+
+    @Test
+    void fadeWithoutColorIsABadRequest() throws Exception {
+        fade("{\"targets\":[\"bedroom\"],\"durationMillis\":1000}");
+    }
+
+    @Test
+    void fadeWithoutTargetsIsABadRequest() throws Exception {
+        fade("{\"targets\":[],\"color\":{\"red\":255},\"durationMillis\":1000}");
+    }
+
+    @Test
+    void fadeTooLongIsABadRequest() throws Exception {
+        fade("{\"targets\":[\"bedroom\"],\"color\":{\"red\":255},\"durationMillis\":600000}");
+    }
+
+    @Test
+    void fadeWithBlankTargetIsABadRequestAndFadesNothing() throws Exception {
+        fade("{\"targets\":[\"bedroom\",\" \"],\"color\":{\"red\":255},\"durationMillis\":1000}");
+        assertFalse(fadeService.cancel("bedroom"));
+    }
+
+    @Test
+    void streamExpectingNoDeviceIsABadRequest() throws Exception {
+        mvc.perform(put("/lightbridge/v1/discover/stream").param("expected", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private void fade(String body) throws Exception {
+        mvc.perform(put("/lightbridge/v1/fade").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isBadRequest());
+    }
+}
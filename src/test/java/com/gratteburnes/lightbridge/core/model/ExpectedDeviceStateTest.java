@@ -0,0 +1,47 @@
+package com.gratteburnes.lightbridge.core.model;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.DeviceState;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpectedDeviceStateTest {
+
+    @Test
+    void serializesLikeAStateReadFromTheDevice() throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        DeviceWithState device = new DeviceWithState(new Device().setIp("192.168.1.10").setMac("5CCF7F000001").setName("bedroom"));
+
+        JsonNode expected = objectMapper.valueToTree(device.setDeviceState(ExpectedDeviceState.power(new DeviceState(), true)));
+        JsonNode read = objectMapper.valueToTree(device.setDeviceState(new DeviceState()));
+
+        assertFalse(expected.get("deviceState").has("expected"));
+        // the device flags it instead, only while it is unconfirmed
+        assertFalse(read.has("unconfirmed"));
+        assertTrue(objectMapper.valueToTree(device.setUnconfirmed(true)).get("unconfirmed").asBoolean());
+        assertTrue(expected.get("deviceState").get("on").asBoolean());
+        assertEquals(fieldNames(read.get("deviceState")), fieldNames(expected.get("deviceState")));
+    }
+
+    @Test
+    void laterCommandsKeepEarlierOnes() {
+        RgbWWCWColor color = new RgbWWCWColor();
+        color.setRed(200);
+        ExpectedDeviceState state = ExpectedDeviceState.color(ExpectedDeviceState.power(null, true), color);
+
+        assertTrue(state.isOn());
+        assertEquals(200, state.getRed());
+    }
+
+    private static Set<String> fieldNames(JsonNode node) {
+        Set<String> names = new TreeSet<>();
+        node.fieldNames().forEachRemaining(names::add);
+        return names;
+    }
+}
@@ -0,0 +1,130 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.RgbWWCWColor;
+import com.gratteburnes.magichome.model.IDevice;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.gratteburnes.lightbridge.core.service.RepositoryFixture.device;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColorStreamServiceTest {
+    private static final IDevice BEDROOM = device("192.168.1.10", "5CCF7F000001", "bedroom");
+
+    private RepositoryFixture fixture;
+    private ColorStreamService colorStreamService;
+    private final List<CompletableFuture<Boolean>> sends = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fixture = new RepositoryFixture(BEDROOM);
+        colorStreamService = new ColorStreamService(fixture.lightbridgeService, fixture.stateCache, fixture.meterRegistry);
+        // every send waits until the test completes it
+        fixture.lightbridgeService.commands = ip -> {
+            CompletableFuture<Boolean> send = new CompletableFuture<>();
+            synchronized (sends) {
+                sends.add(send);
+            }
+            return send;
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void latestColorWinsWhileOneIsInFlight() throws Exception {
+        CompletableFuture<Boolean> first = colorStreamService.push(BEDROOM, color(1));
+        CompletableFuture<Boolean> skipped = colorStreamService.push(BEDROOM, color(2));
+        CompletableFuture<Boolean> latest = colorStreamService.push(BEDROOM, color(3));
+
+        assertFalse(skipped.get(1, TimeUnit.SECONDS));
+        assertEquals(1, colorChanges());
+
+        send(0).complete(true);
+        assertTrue(first.get(1, TimeUnit.SECONDS));
+        awaitSends(2);
+        send(1).complete(true);
+        assertTrue(latest.get(1, TimeUnit.SECONDS));
+
+        assertEquals(2, colorChanges());
+        assertEquals(2, fixture.meterRegistry.counter("lightbridge.color.stream.frames", "outcome", "sent").count());
+        assertEquals(1, fixture.meterRegistry.counter("lightbridge.color.stream.frames", "outcome", "superseded").count());
+        // the cache expects the last color sent
+        assertEquals(3, fixture.stateCache.getAnyAge(BEDROOM).getDeviceState().getRed());
+    }
+
+    @Test
+    void failedSendStillSendsTheNextColor() throws Exception {
+        CompletableFuture<Boolean> failed = colorStreamService.push(BEDROOM, color(1));
+        CompletableFuture<Boolean> next = colorStreamService.push(BEDROOM, color(2));
+
+        send(0).completeExceptionally(new IllegalStateException("gone"));
+        assertTrue(failed.isCompletedExceptionally());
+        awaitSends(2);
+        send(1).complete(true);
+        assertTrue(next.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void slotIsDroppedOnceDrained() throws Exception {
+        CompletableFuture<Boolean> first = colorStreamService.push(BEDROOM, color(1));
+        assertEquals(1, colorStreamService.getSlotCount());
+
+        send(0).complete(true);
+        assertTrue(first.get(1, TimeUnit.SECONDS));
+        assertEquals(0, colorStreamService.getSlotCount());
+
+        // the next color starts a new slot right away
+        CompletableFuture<Boolean> again = colorStreamService.push(BEDROOM, color(2));
+        awaitSends(2);
+        send(1).complete(true);
+        assertTrue(again.get(1, TimeUnit.SECONDS));
+        assertEquals(0, colorStreamService.getSlotCount());
+    }
+
+    @Test
+    void deviceWithoutIpIsRefused() {
+        CompletableFuture<Boolean> result = colorStreamService.push(device(null, "5CCF7F000002", "kitchen"), color(1));
+        assertTrue(result.isCompletedExceptionally());
+        assertEquals(0, colorChanges());
+    }
+
+    private CompletableFuture<Boolean> send(int index) throws InterruptedException {
+        awaitSends(index + 1);
+        synchronized (sends) {
+            return sends.get(index);
+        }
+    }
+
+    private void awaitSends(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (sends) {
+                if (sends.size() >= count) {
+                    return;
+                }
+            }
+            Thread.sleep(5);
+        }
+        fail("expected " + count + " color changes, got " + sends.size());
+    }
+
+    private long colorChanges() {
+        return fixture.lightbridgeService.calls.stream().filter(call -> call.startsWith("color")).count();
+    }
+
+    private static RgbWWCWColor color(int red) {
+        RgbWWCWColor color = new RgbWWCWColor();
+        color.setRed(red);
+        return color;
+    }
+}
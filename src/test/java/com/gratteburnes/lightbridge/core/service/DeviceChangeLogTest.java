@@ -0,0 +1,124 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DeviceEvent;
+import com.gratteburnes.lightbridge.core.model.DeviceWithState;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceChangeLogTest {
+    private static final IDevice KITCHEN = new Device().setIp("192.168.1.10").setMac("AA").setName("kitchen");
+    private static final IDevice DESK = new Device().setIp("192.168.1.11").setMac("BB").setName("desk");
+
+    private DeviceEventService deviceEventService;
+    private DeviceChangeLog changeLog;
+
+    @BeforeEach
+    void setUp() {
+        deviceEventService = new DeviceEventService(new SimpleMeterRegistry(), 1, 16, 1000);
+        changeLog = new DeviceChangeLog(deviceEventService, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        deviceEventService.shutdown();
+    }
+
+    @Test
+    void listsOnlyChangesAfterVersion() {
+        changeLog.recordAdded("kitchen_AA", KITCHEN);
+        long since = changeLog.getVersion();
+        changeLog.recordAdded("desk_BB", DESK);
+
+        assertTrue(changeLog.canAnswer(since));
+        assertFalse(changeLog.changedSince("AA", since));
+        assertTrue(changeLog.changedSince("BB", since));
+    }
+
+    @Test
+    void renameLeavesTombstoneForOldKey() {
+        changeLog.recordAdded("kitchen_AA", KITCHEN);
+        long since = changeLog.getVersion();
+        changeLog.recordRenamed("kitchen_AA", "cooking_AA", new Device(KITCHEN).setName("cooking"), "kitchen");
+
+        assertEquals(List.of("kitchen_AA"), changeLog.removedSince(since));
+        assertTrue(changeLog.changedSince("AA", since));
+    }
+
+    @Test
+    void cannotAnswerPastEvictedTombstonesOrClear() {
+        long start = changeLog.getVersion();
+        changeLog.recordRemoved("a_1", new Device().setMac("1"));
+        changeLog.recordRemoved("b_2", new Device().setMac("2"));
+        assertTrue(changeLog.canAnswer(start));
+
+        changeLog.recordRemoved("c_3", new Device().setMac("3"));
+        assertFalse(changeLog.canAnswer(start));
+
+        long beforeClear = changeLog.getVersion();
+        changeLog.recordCleared();
+        assertFalse(changeLog.canAnswer(beforeClear));
+        assertTrue(changeLog.canAnswer(changeLog.getVersion()));
+    }
+
+    @Test
+    void cannotAnswerVersionsFromTheFuture() {
+        assertFalse(changeLog.canAnswer(changeLog.getVersion() + 1));
+    }
+
+    @Test
+    void eventsArePublishedInVersionOrder() throws Exception {
+        List<Long> published = new ArrayList<>();
+        DeviceEventService recording = new DeviceEventService(new SimpleMeterRegistry(), 1, 16, 1000) {
+            @Override
+            public void publish(DeviceEvent event) {
+                synchronized (published) {
+                    published.add(event.getVersion());
+                }
+                // widens the window between numbering and publishing
+                Thread.yield();
+            }
+        };
+        DeviceChangeLog concurrentLog = new DeviceChangeLog(recording, 1000);
+        ExecutorService recorders = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                int offset = thread;
+                done.add(recorders.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        IDevice device = new Device().setMac("M" + offset + "_" + (i % 10));
+                        if (i % 2 == 0) {
+                            concurrentLog.recordUpdated(device);
+                        } else {
+                            concurrentLog.recordState(new DeviceWithState(device));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : done) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            recorders.shutdownNow();
+            recording.shutdown();
+        }
+
+        assertEquals(8000, published.size());
+        for (int i = 1; i < published.size(); i++) {
+            assertTrue(published.get(i) > published.get(i - 1), "event " + i + " out of order");
+        }
+    }
+}
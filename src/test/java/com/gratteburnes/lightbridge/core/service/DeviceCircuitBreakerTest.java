@@ -0,0 +1,73 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DeviceHealth;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceCircuitBreakerTest {
+    private static final String IP = "192.168.1.10";
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        DeviceCircuitBreaker breaker = new DeviceCircuitBreaker(2, 60000, 120000);
+        breaker.recordFailure(IP, new IOException("timeout"));
+        assertTrue(breaker.allow(IP));
+        assertNull(breaker.getHealthIfTripped(IP));
+
+        breaker.recordFailure(IP, new IOException("timeout"));
+        assertFalse(breaker.allow(IP));
+        DeviceHealth health = breaker.getHealthIfTripped(IP);
+        assertEquals(DeviceHealth.State.OPEN, health.getState());
+        assertEquals("timeout", health.getLastError());
+        assertTrue(breaker.getTripped().containsKey(IP));
+    }
+
+    @Test
+    void deviceWithoutIpHasNoCircuit() {
+        DeviceCircuitBreaker breaker = new DeviceCircuitBreaker(1, 60000, 120000);
+        assertTrue(breaker.allow(null));
+        assertNull(breaker.getHealthIfTripped(null));
+        assertEquals(DeviceHealth.State.CLOSED, breaker.getHealth(null).getState());
+    }
+
+    @Test
+    void successResetsFailures() {
+        DeviceCircuitBreaker breaker = new DeviceCircuitBreaker(2, 60000, 120000);
+        breaker.recordFailure(IP, new IOException("timeout"));
+        breaker.recordSuccess(IP);
+        breaker.recordFailure(IP, new IOException("timeout"));
+        assertTrue(breaker.allow(IP));
+    }
+
+    @Test
+    void letsOneProbeThroughOnceBackoffElapsed() throws InterruptedException {
+        DeviceCircuitBreaker breaker = new DeviceCircuitBreaker(1, 20, 1000);
+        breaker.recordFailure(IP, new IOException("timeout"));
+        assertFalse(breaker.allow(IP));
+
+        Thread.sleep(40);
+        assertTrue(breaker.allow(IP));
+        assertFalse(breaker.allow(IP));
+        assertEquals(DeviceHealth.State.HALF_OPEN, breaker.getHealth(IP).getState());
+
+        breaker.recordSuccess(IP);
+        assertTrue(breaker.allow(IP));
+        assertEquals(DeviceHealth.State.CLOSED, breaker.getHealth(IP).getState());
+    }
+
+    @Test
+    void failedProbeDoublesBackoff() throws InterruptedException {
+        DeviceCircuitBreaker breaker = new DeviceCircuitBreaker(1, 20, 1000);
+        breaker.recordFailure(IP, new IOException("timeout"));
+        Thread.sleep(40);
+        assertTrue(breaker.allow(IP));
+
+        breaker.recordFailure(IP, new IOException("timeout"));
+        DeviceHealth health = breaker.getHealth(IP);
+        assertEquals(DeviceHealth.State.OPEN, health.getState());
+        assertTrue(health.getNextProbe() - System.currentTimeMillis() > 20);
+    }
+}
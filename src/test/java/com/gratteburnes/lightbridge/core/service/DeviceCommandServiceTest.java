@@ -0,0 +1,144 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.BatchCommand;
+import com.gratteburnes.lightbridge.core.model.DeviceWithMessage;
+import com.gratteburnes.lightbridge.core.model.DeviceWithState;
+import com.gratteburnes.lightbridge.core.model.error.InvalidCommandException;
+import com.gratteburnes.magichome.model.DeviceState;
+import com.gratteburnes.magichome.model.IDevice;
+import com.gratteburnes.magichome.model.error.DeviceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.gratteburnes.lightbridge.core.service.RepositoryFixture.device;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceCommandServiceTest {
+    private RepositoryFixture fixture;
+    private DeviceCommandService commandService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fixture = new RepositoryFixture(
+                device("192.168.1.10", "5CCF7F000001", "bedroom"),
+                device("192.168.1.11", "5CCF7F000002", "kitchen"),
+                device("192.168.1.12", "5CCF7F000003", "hall"));
+        commandService = new DeviceCommandService(fixture.lightbridgeService, fixture.repository, fixture.stateCache, fixture.circuitBreaker, 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void batchReportsEachTargetOnItsOwn() throws Exception {
+        fixture.lightbridgeService.commands = ip -> "192.168.1.11".equals(ip) ?
+                CompletableFuture.failedFuture(new DeviceException("no answer")) :
+                CompletableFuture.completedFuture(true);
+
+        Map<String, IDevice> results = commandService.execute(List.of(
+                command("bedroom", BatchCommand.Action.ON),
+                command("kitchen", BatchCommand.Action.OFF),
+                command("garage", BatchCommand.Action.ON),
+                command("hall", null)), false).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Set.of("bedroom", "kitchen", "garage", "hall"), results.keySet());
+        assertTrue(results.get("bedroom") instanceof DeviceWithState);
+        assertTrue(((DeviceWithState) results.get("bedroom")).isOn());
+        assertEquals("no answer", ((DeviceWithMessage) results.get("kitchen")).getMessage());
+        assertEquals("5CCF7F000002", results.get("kitchen").getMac());
+        assertTrue(((DeviceWithMessage) results.get("garage")).getMessage().contains("not registered"));
+        assertEquals("Action cannot be null", ((DeviceWithMessage) results.get("hall")).getMessage());
+        assertEquals(List.of("on 192.168.1.10", "off 192.168.1.11"), commands());
+    }
+
+    @Test
+    void deviceThatLostItsIpIsReportedInTheBatch() throws Exception {
+        fixture.repository.reconcile(Map.of("5CCF7F000009", device("192.168.1.11", "5CCF7F000009", "AK001")));
+
+        Map<String, IDevice> results = commandService.execute(List.of(
+                command("bedroom", BatchCommand.Action.ON),
+                command("kitchen", BatchCommand.Action.ON)), false).get(5, TimeUnit.SECONDS);
+
+        assertTrue(results.get("bedroom") instanceof DeviceWithState);
+        DeviceWithMessage kitchen = (DeviceWithMessage) results.get("kitchen");
+        assertTrue(kitchen.getMessage().contains("no known ip"));
+        assertNull(kitchen.getHealth());
+    }
+
+    @Test
+    void expectedStateIsCachedAsUnconfirmedUntilTheDeviceAnswers() throws Exception {
+        CompletableFuture<DeviceState> verification = new CompletableFuture<>();
+        fixture.lightbridgeService.states = ip -> verification;
+
+        DeviceWithState answered = commandService.turnOn("bedroom", false).get(5, TimeUnit.SECONDS);
+        assertTrue(answered.isOn());
+        assertTrue(answered.isUnconfirmed());
+        assertTrue(((DeviceWithState) fixture.repository.getDevice("bedroom", true, true)).isUnconfirmed());
+
+        verification.complete(new DeviceState());
+        DeviceWithState cached = (DeviceWithState) fixture.repository.getDevice("bedroom", true, true);
+        assertFalse(cached.isUnconfirmed());
+        // the device said off, the cache believes it over the command
+        assertFalse(cached.isOn());
+    }
+
+    @Test
+    void expectedStateIsDroppedWhenTheDeviceCantConfirmIt() throws Exception {
+        CompletableFuture<DeviceState> verification = new CompletableFuture<>();
+        fixture.lightbridgeService.states = ip -> verification;
+        commandService.turnOn("bedroom", false).get(5, TimeUnit.SECONDS);
+
+        verification.completeExceptionally(new DeviceException("no answer"));
+        assertNull(fixture.stateCache.getAnyAge(fixture.repository.findDevice("bedroom")));
+    }
+
+    @Test
+    void verifiedStateIsConfirmed() throws Exception {
+        DeviceWithState answered = commandService.turnOn("bedroom", true).get(5, TimeUnit.SECONDS);
+        assertFalse(answered.isUnconfirmed());
+    }
+
+    @Test
+    void sameTargetTwiceRejectsTheBatch() {
+        assertThrows(InvalidCommandException.class, () -> commandService.execute(List.of(
+                command("bedroom", BatchCommand.Action.ON),
+                command("bedroom", BatchCommand.Action.OFF)), false));
+        assertTrue(commands().isEmpty());
+    }
+
+    @Test
+    void nameAndIpOfOneDeviceRejectTheBatch() {
+        InvalidCommandException e = assertThrows(InvalidCommandException.class, () -> commandService.execute(List.of(
+                command("hall", BatchCommand.Action.ON),
+                command("bedroom", BatchCommand.Action.ON),
+                command("192.168.1.10", BatchCommand.Action.OFF)), false));
+        assertTrue(e.getMessage().contains("same device"));
+        // nothing is sent before the whole batch was checked
+        assertTrue(commands().isEmpty());
+    }
+
+    @Test
+    void blankTargetRejectsTheBatch() {
+        assertThrows(InvalidCommandException.class, () -> commandService.execute(List.of(command(" ", BatchCommand.Action.ON)), false));
+    }
+
+    private List<String> commands() {
+        return fixture.lightbridgeService.calls.stream().filter(call -> !call.startsWith("state")).toList();
+    }
+
+    private static BatchCommand command(String target, BatchCommand.Action action) {
+        BatchCommand command = new BatchCommand();
+        command.setTarget(target);
+        command.setAction(action);
+        return command;
+    }
+}
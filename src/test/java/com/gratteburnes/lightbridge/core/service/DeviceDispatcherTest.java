@@ -0,0 +1,120 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.error.DeviceBusyException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceDispatcherTest {
+    private static final String IP = "192.168.1.10";
+
+    private DeviceDispatcher dispatcher;
+
+    @AfterEach
+    void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void runsTasksForOneDeviceOneAtATimeInOrder() throws Exception {
+        dispatcher = new DeviceDispatcher(new SimpleMeterRegistry(), 16, 1000, 10);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        List<String> started = new ArrayList<>();
+
+        CompletableFuture<String> a = dispatcher.submit(IP, () -> {
+            started.add("a");
+            return first;
+        });
+        CompletableFuture<String> b = dispatcher.submit(IP, () -> {
+            started.add("b");
+            return CompletableFuture.completedFuture("b");
+        });
+        assertEquals(List.of("a"), started);
+        assertEquals(1, dispatcher.getQueued(IP));
+
+        first.complete("a");
+        assertEquals("a", a.get());
+        assertEquals("b", b.get());
+        assertEquals(List.of("a", "b"), started);
+    }
+
+    @Test
+    void otherDevicesDoNotWait() throws Exception {
+        dispatcher = new DeviceDispatcher(new SimpleMeterRegistry(), 16, 1000, 10);
+        dispatcher.submit(IP, CompletableFuture::new);
+        assertEquals("other", dispatcher.submit("192.168.1.11", () -> CompletableFuture.completedFuture("other")).get());
+    }
+
+    @Test
+    void rejectsWhenMailboxIsFull() {
+        dispatcher = new DeviceDispatcher(new SimpleMeterRegistry(), 1, 1000, 10);
+        dispatcher.submit(IP, CompletableFuture::new);
+        dispatcher.submit(IP, CompletableFuture::new);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> dispatcher.submit(IP, CompletableFuture::new).get());
+        assertTrue(e.getCause() instanceof DeviceBusyException);
+    }
+
+    @Test
+    void pacesTasksBeyondTheBurst() throws Exception {
+        dispatcher = new DeviceDispatcher(new SimpleMeterRegistry(), 16, 20, 1);
+        long start = System.nanoTime();
+        dispatcher.submit(IP, () -> CompletableFuture.completedFuture(1)).get();
+        dispatcher.submit(IP, () -> CompletableFuture.completedFuture(2)).get();
+        assertTrue(System.nanoTime() - start >= 40_000_000L);
+    }
+
+    @Test
+    void idleMailboxIsDroppedWithItsGauge() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        dispatcher = new DeviceDispatcher(meterRegistry, 16, 1000, 1);
+        dispatcher.submit(IP, () -> CompletableFuture.completedFuture(1)).get();
+
+        awaitMailboxes(0);
+        assertNull(meterRegistry.find("lightbridge.device.mailbox.depth").tag("ip", IP).gauge());
+
+        // the next request starts a new mailbox and gauge
+        CompletableFuture<Integer> pending = new CompletableFuture<>();
+        dispatcher.submit(IP, () -> pending);
+        dispatcher.submit(IP, () -> CompletableFuture.completedFuture(2));
+        assertEquals(1, meterRegistry.find("lightbridge.device.mailbox.depth").tag("ip", IP).gauge().value());
+        pending.complete(1);
+        awaitMailboxes(0);
+    }
+
+    @Test
+    void busyOrPacedMailboxIsKept() throws Exception {
+        dispatcher = new DeviceDispatcher(new SimpleMeterRegistry(), 16, 1, 1);
+        dispatcher.submit(IP, () -> CompletableFuture.completedFuture(1)).get();
+        dispatcher.submit("192.168.1.11", CompletableFuture::new);
+
+        // the first one waits a second for its bucket to refill, the second one is still running
+        Thread.sleep(100);
+        assertEquals(2, dispatcher.getMailboxCount());
+    }
+
+    @Test
+    void requestsRacingRetirementAllRun() throws Exception {
+        dispatcher = new DeviceDispatcher(new SimpleMeterRegistry(), 16, 1_000_000, 1);
+        for (int i = 0; i < 500; i++) {
+            int value = i;
+            assertEquals(value, dispatcher.submit(IP, () -> CompletableFuture.completedFuture(value)).get(1, TimeUnit.SECONDS));
+        }
+        awaitMailboxes(0);
+    }
+
+    private void awaitMailboxes(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (dispatcher.getMailboxCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, dispatcher.getMailboxCount());
+    }
+}
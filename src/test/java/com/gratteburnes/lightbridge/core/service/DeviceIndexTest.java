@@ -0,0 +1,93 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceIndexTest {
+
+    @Test
+    void parsesIps() {
+        assertEquals(0xC0A8010AL, DeviceIndex.parseIp("192.168.1.10"));
+        assertEquals(0x0A000001L, DeviceIndex.parseIp("10.0.0.1"));
+        assertEquals(0xC0A8010AL, DeviceIndex.parseIp("192.168.001.010"));
+        assertEquals(0xFEFEFEFEL, DeviceIndex.parseIp("254.254.254.254"));
+        for (String notAnIp : new String[]{null, "", "1.2.3", "1.2.3.4.5", "1.2.3.255", "1.2.3.1000", "1..2.3",
+                ".1.2.3", "1.2.3.", "+1.2.3.4", "1.2.3.4 ", "bedroom", "\u0661.\u0662.\u0663.\u0664"}) {
+            assertEquals(-1, DeviceIndex.parseIp(notAnIp), String.valueOf(notAnIp));
+        }
+    }
+
+    @Test
+    void parsesMacs() {
+        assertEquals(0x5CCF7F0A0B0CL, DeviceIndex.parseMac("5CCF7F0A0B0C"));
+        assertEquals(0x5CCF7F0A0B0CL, DeviceIndex.parseMac("5ccf7f0a0b0c"));
+        assertEquals(0x5CCF7F0A0B0CL, DeviceIndex.parseMac("5C:CF:7F:0A:0B:0C"));
+        assertEquals(0x5CCF7F0A0B0CL, DeviceIndex.parseMac("5c-cf-7f-0a-0b-0c"));
+        for (String notAMac : new String[]{null, "", "5CCF7F0A0B0", "5CCF7F0A0B0G", "5C:CF:7F:0A:0B0C", "5CC:F7F:0A0:B0C"}) {
+            assertEquals(-1, DeviceIndex.parseMac(notAMac), String.valueOf(notAMac));
+        }
+    }
+
+    @Test
+    void resolvesByIpMacOrName() {
+        DeviceIndex index = index(
+                device("192.168.1.10", "5CCF7F000001", "Bedroom"),
+                device("192.168.1.11", "5CCF7F000002", "Kitchen"));
+
+        assertEquals("5CCF7F000001", index.resolve("192.168.1.10").getMac());
+        assertEquals("5CCF7F000001", index.resolve("192.168.001.010").getMac());
+        assertEquals("5CCF7F000002", index.resolve("5c:cf:7f:00:00:02").getMac());
+        assertEquals("5CCF7F000002", index.resolve("Kitchen").getMac());
+        assertEquals("5CCF7F000002", index.resolve("kITCHEN").getMac());
+        assertNull(index.resolve("192.168.1.12"));
+        assertNull(index.resolve("5CCF7F000003"));
+        assertNull(index.resolve("garage"));
+        assertNull(index.resolve(""));
+        assertNull(index.resolve(null));
+    }
+
+    @Test
+    void exactNameWinsOverMacAndOtherCase() {
+        DeviceIndex index = index(
+                device("192.168.1.10", "5CCF7F000001", "lamp"),
+                device("192.168.1.11", "5CCF7F000002", "Lamp"),
+                device("192.168.1.12", "ABCDEF012345", "5CCF7F000001"));
+
+        assertEquals("5CCF7F000002", index.resolve("Lamp").getMac());
+        assertEquals("5CCF7F000001", index.resolve("lamp").getMac());
+        assertEquals("ABCDEF012345", index.resolve("5CCF7F000001").getMac());
+        assertEquals("5CCF7F000001", index.resolve("5ccf7f000001").getMac());
+    }
+
+    @Test
+    void duplicateNamesResolveToFirstKey() {
+        DeviceIndex index = index(
+                device("192.168.1.12", "5CCF7F000003", "Lamp"),
+                device("192.168.1.10", "5CCF7F000001", "Lamp"),
+                device("192.168.1.11", "5CCF7F000002", "lamp"));
+
+        // keys are name_mac, so "Lamp_5CCF7F000001" sorts first, whatever order the devices came in
+        assertEquals("5CCF7F000001", index.resolve("Lamp").getMac());
+        assertEquals("5CCF7F000001", index.getByName("Lamp").getMac());
+        assertEquals("5CCF7F000002", index.resolve("lamp").getMac());
+        assertEquals("5CCF7F000001", index.resolve("LAMP").getMac());
+    }
+
+    private static DeviceIndex index(IDevice... devices) {
+        Map<String, IDevice> byKey = new TreeMap<>();
+        for (IDevice device : devices) {
+            byKey.put(device.getName() + "_" + device.getMac(), device);
+        }
+        return new DeviceIndex(byKey);
+    }
+
+    private static IDevice device(String ip, String mac, String name) {
+        return new Device().setIp(ip).setMac(mac).setName(name);
+    }
+}
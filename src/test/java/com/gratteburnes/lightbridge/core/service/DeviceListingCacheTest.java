@@ -0,0 +1,70 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.lightbridge.core.model.DevicesByName;
+import com.gratteburnes.lightbridge.core.model.SerializedDevice;
+import com.gratteburnes.lightbridge.core.model.SerializedDevicesByName;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceListingCacheTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DeviceListingCache cache = new DeviceListingCache(objectMapper);
+
+    @Test
+    void listingMatchesJackson() throws Exception {
+        DeviceIndex index = new DeviceIndex(devices(
+                new Device().setIp("192.168.1.10").setMac("5CCF7F000001").setName("Bedroom"),
+                new Device().setIp("192.168.1.11").setMac("5CCF7F000002").setName("Kid's \"room\" é☃"),
+                new Device().setIp(null).setMac("5CCF7F000003").setName("Gone")));
+
+        SerializedDevicesByName listing = cache.listing(index, 42);
+        DevicesByName expected = new DevicesByName(index.getDevicesByKey())
+                .setTimestamp(listing.getTimestamp())
+                .setVersion(42L);
+
+        byte[] json = listing.toJson();
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsBytes(expected)), objectMapper.readTree(json));
+        assertEquals(objectMapper.writeValueAsString(expected), new String(json, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void emptyListingMatchesJackson() throws Exception {
+        SerializedDevicesByName listing = cache.listing(DeviceIndex.EMPTY, 0);
+        DevicesByName expected = new DevicesByName(DeviceIndex.EMPTY.getDevicesByKey())
+                .setTimestamp(listing.getTimestamp())
+                .setVersion(0L);
+
+        assertEquals(objectMapper.writeValueAsString(expected), new String(listing.toJson(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void unchangedDevicesKeepTheirEntryAcrossSnapshots() throws Exception {
+        IDevice bedroom = new Device().setIp("192.168.1.10").setMac("5CCF7F000001").setName("Bedroom");
+        IDevice kitchen = new Device().setIp("192.168.1.11").setMac("5CCF7F000002").setName("Kitchen");
+        DeviceIndex first = new DeviceIndex(devices(bedroom, kitchen));
+        byte[] bedroomJson = cache.device(first, "Bedroom_5CCF7F000001", bedroom).toJson();
+
+        DeviceIndex second = new DeviceIndex(devices(bedroom, new Device(kitchen).setIp("192.168.1.12")));
+        SerializedDevice kitchenAfter = cache.device(second, "Kitchen_5CCF7F000002", second.getByKey("Kitchen_5CCF7F000002"));
+
+        assertSame(bedroomJson, cache.device(second, "Bedroom_5CCF7F000001", bedroom).toJson());
+        assertEquals(objectMapper.writeValueAsString(second.getByKey("Kitchen_5CCF7F000002")),
+                new String(kitchenAfter.toJson(), StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, IDevice> devices(IDevice... devices) {
+        Map<String, IDevice> byKey = new TreeMap<>();
+        for (IDevice device : devices) {
+            byKey.put(device.getName() + "_" + device.getMac(), device);
+        }
+        return byKey;
+    }
+}
@@ -0,0 +1,185 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DeviceWithMessage;
+import com.gratteburnes.lightbridge.core.model.DeviceWithState;
+import com.gratteburnes.lightbridge.core.model.DiscoveredDevice;
+import com.gratteburnes.magichome.model.IDevice;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.gratteburnes.lightbridge.core.service.RepositoryFixture.device;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceRepositoryServiceTest {
+    private static final IDevice BEDROOM = device("192.168.1.10", "5CCF7F000001", "bedroom");
+    private static final IDevice KITCHEN = device("192.168.1.11", "5CCF7F000002", "kitchen");
+
+    private RepositoryFixture fixture;
+    private DeviceRepositoryService repository;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        fixture = new RepositoryFixture(BEDROOM, KITCHEN);
+        repository = fixture.repository;
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void addsNewDevices() throws Exception {
+        IDevice hall = device("192.168.1.12", "5CCF7F000003", "hall");
+        Map<String, IDevice> result = repository.reconcile(discovered(BEDROOM, KITCHEN, hall));
+
+        DiscoveredDevice added = (DiscoveredDevice) result.get("hall_5CCF7F000003");
+        assertTrue(added.isAdded());
+        assertTrue(added.isSeen());
+        assertEquals("192.168.1.12", repository.findDevice("hall").getIp());
+        assertEquals(3, repository.getDeviceCount());
+        assertEquals(1, fixture.store.mutations.size());
+    }
+
+    @Test
+    void streamedReplyMatchesADeviceAddedByAFullDiscovery() throws Exception {
+        repository.reconcile(discovered(BEDROOM, KITCHEN, device("192.168.1.12", "5CCF7F000003", "AK001-ZJ2101")));
+
+        // named differently by the reply, still the same device
+        DiscoveredDevice streamed = repository.reconcileFound(DiscoveryProber.parseReply("192.168.1.12,5CCF7F000003,"));
+        assertFalse(streamed.isAdded());
+        assertEquals("AK001-ZJ2101", streamed.getName());
+        assertEquals(3, repository.getDeviceCount());
+    }
+
+    @Test
+    void knownDeviceOnAnotherIpMovesInPlace() throws Exception {
+        Map<String, IDevice> result = repository.reconcile(discovered(BEDROOM, device("192.168.1.20", "5CCF7F000002", "AK001")));
+
+        DiscoveredDevice moved = (DiscoveredDevice) result.get("kitchen_5CCF7F000002");
+        assertFalse(moved.isAdded());
+        assertEquals("192.168.1.20", moved.getIp());
+        assertTrue(moved.getMessage().contains("ip changed from 192.168.1.11"));
+        // keeps its name and key, found under the new ip only
+        assertEquals("kitchen", repository.findDevice("192.168.1.20").getName());
+        assertNull(repository.getDeviceFromString("192.168.1.11"));
+        assertEquals(2, repository.getDeviceCount());
+    }
+
+    @Test
+    void deviceWhoseIpWasTakenOverLosesIt() throws Exception {
+        IDevice newcomer = device("192.168.1.11", "5CCF7F000009", "AK001");
+        Map<String, IDevice> result = repository.reconcile(discovered(BEDROOM, newcomer));
+
+        DiscoveredDevice displaced = (DiscoveredDevice) result.get("kitchen_5CCF7F000002");
+        assertFalse(displaced.isSeen());
+        assertNull(displaced.getIp());
+        assertTrue(displaced.getMessage().contains("taken over"));
+        assertNull(repository.findDevice("kitchen").getIp());
+        assertEquals("5CCF7F000009", repository.findDevice("192.168.1.11").getMac());
+        assertTrue(repository.getNotSeenSince().containsKey("5CCF7F000002"));
+    }
+
+    @Test
+    void displacedDeviceIsStillListedWithState() throws Exception {
+        repository.reconcile(discovered(BEDROOM, device("192.168.1.11", "5CCF7F000009", "AK001")));
+
+        Map<String, IDevice> devices = repository.getDevices(true, false);
+        assertEquals(3, devices.size());
+        assertTrue(devices.get("bedroom_5CCF7F000001") instanceof DeviceWithState);
+        DeviceWithMessage displaced = (DeviceWithMessage) devices.get("kitchen_5CCF7F000002");
+        assertNull(displaced.getIp());
+        assertTrue(displaced.getMessage().contains("no known ip"));
+
+        assertTrue(repository.getDevice("kitchen", true, true) instanceof DeviceWithMessage);
+    }
+
+    @Test
+    void devicesMissingFromACompleteSweepAreUnseenButKept() throws Exception {
+        Map<String, IDevice> result = repository.reconcile(discovered(BEDROOM));
+
+        DiscoveredDevice unseen = (DiscoveredDevice) result.get("kitchen_5CCF7F000002");
+        assertFalse(unseen.isSeen());
+        assertEquals("192.168.1.11", unseen.getIp());
+        assertEquals("192.168.1.11", repository.findDevice("kitchen").getIp());
+        assertEquals(Map.of("5CCF7F000002", repository.getNotSeenSince().get("5CCF7F000002")), repository.getNotSeenSince());
+        // nothing changed, nothing to persist
+        assertTrue(fixture.store.mutations.isEmpty());
+    }
+
+    @Test
+    void unseenSinceSticksUntilTheDeviceIsSeenAgain() throws Exception {
+        repository.reconcile(discovered(BEDROOM));
+        long since = repository.getNotSeenSince().get("5CCF7F000002");
+        Thread.sleep(5);
+        repository.reconcile(discovered(BEDROOM));
+        assertEquals(since, repository.getNotSeenSince().get("5CCF7F000002"));
+
+        Map<String, IDevice> result = repository.reconcile(discovered(BEDROOM, KITCHEN));
+        assertTrue(((DiscoveredDevice) result.get("kitchen_5CCF7F000002")).isSeen());
+        assertTrue(repository.getNotSeenSince().isEmpty());
+    }
+
+    @Test
+    void singleReplyLeavesDevicesThatDidNotAnswerYetAlone() throws Exception {
+        DiscoveredDevice found = repository.reconcileFound(BEDROOM);
+
+        assertTrue(found.isSeen());
+        assertFalse(found.isAdded());
+        assertTrue(repository.getNotSeenSince().isEmpty());
+        assertEquals("192.168.1.11", repository.findDevice("kitchen").getIp());
+    }
+
+    @Test
+    void singleReplyStillClearsADisplacedIp() throws Exception {
+        DiscoveredDevice found = repository.reconcileFound(device("192.168.1.11", "5CCF7F000009", "AK001"));
+
+        assertTrue(found.isAdded());
+        assertNull(repository.findDevice("kitchen").getIp());
+        assertEquals(Map.of("5CCF7F000002", repository.getNotSeenSince().get("5CCF7F000002")), repository.getNotSeenSince());
+        assertEquals("192.168.1.10", repository.findDevice("bedroom").getIp());
+    }
+
+    @Test
+    void reSeenDeviceGetsItsIpBack() throws Exception {
+        repository.reconcile(discovered(BEDROOM, device("192.168.1.11", "5CCF7F000009", "AK001")));
+        repository.reconcile(discovered(BEDROOM, device("192.168.1.11", "5CCF7F000009", "AK001"), device("192.168.1.30", "5CCF7F000002", "AK001")));
+
+        assertEquals("192.168.1.30", repository.findDevice("kitchen").getIp());
+        assertTrue(repository.getNotSeenSince().isEmpty());
+    }
+
+    @Test
+    void failingStoreLeavesRepositoryAndUnseenDevicesUntouched() throws Exception {
+        fixture.store.failing = true;
+        IDevice newcomer = device("192.168.1.11", "5CCF7F000009", "AK001");
+
+        assertThrows(IOException.class, () -> repository.reconcile(discovered(newcomer)));
+        assertTrue(repository.getNotSeenSince().isEmpty());
+        assertEquals(2, repository.getDeviceCount());
+        assertEquals("192.168.1.11", repository.findDevice("kitchen").getIp());
+    }
+
+    @Test
+    void failingStoreKeepsEarlierUnseenTimestamps() throws Exception {
+        repository.reconcile(discovered(BEDROOM));
+        Map<String, Long> before = Map.copyOf(repository.getNotSeenSince());
+
+        fixture.store.failing = true;
+        assertThrows(IOException.class, () -> repository.reconcile(discovered(KITCHEN, device("192.168.1.10", "5CCF7F000009", "AK001"))));
+        assertEquals(before, repository.getNotSeenSince());
+    }
+
+    private static Map<String, IDevice> discovered(IDevice... devices) {
+        Map<String, IDevice> byMac = new TreeMap<>();
+        for (IDevice device : devices) {
+            byMac.put(device.getMac(), device);
+        }
+        return byMac;
+    }
+}
@@ -0,0 +1,134 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.magichome.model.DeviceState;
+import com.gratteburnes.magichome.model.IDevice;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static com.gratteburnes.lightbridge.core.service.RepositoryFixture.device;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceStartupServiceTest {
+    private static final IDevice BEDROOM = device("192.168.1.10", "5CCF7F000001", "bedroom");
+
+    private RepositoryFixture fixture;
+    private DeviceStartupService startupService;
+    private DeviceStartupHealthIndicator healthIndicator;
+
+    @AfterEach
+    void tearDown() {
+        startupService.shutdown();
+        fixture.close();
+    }
+
+    @Test
+    void emptyBridgeIsOutOfServiceFromTheStartUntilDiscoveryIsDone() throws Exception {
+        setUp(true, true);
+        CountDownLatch discovering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        fixture.lightbridgeService.discovery = () -> {
+            discovering.countDown();
+            await(release);
+            return Map.of(BEDROOM.getMac(), BEDROOM);
+        };
+        CompletableFuture<DeviceState> warmUp = new CompletableFuture<>();
+        fixture.lightbridgeService.states = ip -> warmUp;
+
+        // before start() too, readiness never goes up and back down
+        assertEquals(Status.OUT_OF_SERVICE, health().getStatus());
+        assertEquals(false, health().getDetails().get("persistedDevices"));
+
+        startupService.start();
+        assertTrue(discovering.await(2, TimeUnit.SECONDS));
+        assertEquals(DeviceStartupService.Phase.DISCOVERING, startupService.getPhase());
+        assertEquals(Status.OUT_OF_SERVICE, health().getStatus());
+
+        release.countDown();
+        awaitUntil(() -> startupService.getPhase() == DeviceStartupService.Phase.WARMING_UP);
+        assertEquals(Status.UP, health().getStatus());
+        assertEquals(1, health().getDetails().get("discovered"));
+
+        warmUp.complete(new DeviceState());
+        awaitUntil(() -> startupService.getPhase() == DeviceStartupService.Phase.READY);
+        assertEquals(Status.UP, health().getStatus());
+        assertTrue(health().getDetails().containsKey("readyMillis"));
+    }
+
+    @Test
+    void bridgeWithPersistedDevicesIsReadyRightAway() throws Exception {
+        setUp(true, false, BEDROOM);
+        CountDownLatch release = new CountDownLatch(1);
+        fixture.lightbridgeService.discovery = () -> {
+            await(release);
+            return Map.of();
+        };
+
+        assertEquals(Status.UP, health().getStatus());
+        startupService.start();
+        assertEquals(Status.UP, health().getStatus());
+        assertEquals(true, health().getDetails().get("persistedDevices"));
+
+        release.countDown();
+        awaitUntil(() -> startupService.getPhase() == DeviceStartupService.Phase.READY);
+        assertEquals(Status.UP, health().getStatus());
+    }
+
+    @Test
+    void failedDiscoveryDoesNotHoldReadinessBack() throws Exception {
+        setUp(true, false);
+        fixture.lightbridgeService.discovery = () -> {
+            throw new IllegalStateException("no network");
+        };
+
+        startupService.start();
+        awaitUntil(() -> startupService.getPhase() == DeviceStartupService.Phase.READY);
+        assertEquals(Status.UP, health().getStatus());
+        assertEquals("no network", health().getDetails().get("discoveryError"));
+        assertFalse(health().getDetails().containsKey("discovered"));
+    }
+
+    @Test
+    void withoutDiscoveryAnEmptyBridgeIsReadyOnceStarted() throws Exception {
+        setUp(false, false);
+        assertEquals(Status.OUT_OF_SERVICE, health().getStatus());
+
+        startupService.start();
+        awaitUntil(() -> startupService.getPhase() == DeviceStartupService.Phase.READY);
+        assertEquals(Status.UP, health().getStatus());
+        assertFalse(fixture.lightbridgeService.calls.contains("discover"));
+    }
+
+    private void setUp(boolean discoveryEnabled, boolean warmUpEnabled, IDevice... devices) throws Exception {
+        fixture = new RepositoryFixture(devices);
+        startupService = new DeviceStartupService(fixture.lightbridgeService, fixture.repository, discoveryEnabled, warmUpEnabled);
+        healthIndicator = new DeviceStartupHealthIndicator(startupService);
+    }
+
+    private Health health() {
+        return healthIndicator.health();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
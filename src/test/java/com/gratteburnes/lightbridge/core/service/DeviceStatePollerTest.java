@@ -0,0 +1,75 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.magichome.model.DeviceState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.gratteburnes.lightbridge.core.service.RepositoryFixture.device;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceStatePollerTest {
+    private RepositoryFixture fixture;
+    private DeviceStatePoller poller;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fixture = new RepositoryFixture(device("192.168.1.10", "5CCF7F000001", "bedroom"));
+        poller = new DeviceStatePoller(fixture.repository);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void pollReturnsWithoutWaitingForDevices() {
+        CompletableFuture<DeviceState> answer = new CompletableFuture<>();
+        fixture.lightbridgeService.states = ip -> answer;
+
+        assertTimeoutPreemptively(Duration.ofSeconds(1), poller::poll);
+        assertEquals(1, stateQueries());
+        answer.complete(new DeviceState());
+    }
+
+    @Test
+    void skipsWhilePreviousPollIsRunning() throws Exception {
+        CompletableFuture<DeviceState> answer = new CompletableFuture<>();
+        fixture.lightbridgeService.states = ip -> answer;
+
+        poller.poll();
+        poller.poll();
+        assertEquals(1, stateQueries());
+
+        answer.complete(new DeviceState());
+        // the poll finishes on the device io side, the next run starts a new one
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(2);
+        while (stateQueries() < 2 && System.currentTimeMillis() < deadline) {
+            poller.poll();
+            Thread.sleep(10);
+        }
+        assertEquals(2, stateQueries());
+    }
+
+    @Test
+    void failedPollDoesNotStopLaterOnes() throws Exception {
+        fixture.lightbridgeService.states = ip -> CompletableFuture.failedFuture(new IllegalStateException("gone"));
+        poller.poll();
+        fixture.lightbridgeService.states = ip -> CompletableFuture.completedFuture(new DeviceState());
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(2);
+        while (stateQueries() < 2 && System.currentTimeMillis() < deadline) {
+            poller.poll();
+            Thread.sleep(10);
+        }
+        assertEquals(2, stateQueries());
+    }
+
+    private long stateQueries() {
+        return fixture.lightbridgeService.calls.stream().filter(call -> call.startsWith("state")).count();
+    }
+}
@@ -0,0 +1,120 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.DiscoverySweep;
+import com.gratteburnes.magichome.model.IDevice;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiscoveryProberTest {
+    private DatagramSocket responder;
+    private Thread responderThread;
+    private DiscoveryProber prober;
+
+    // answers every probe with three devices, the second one twice
+    @BeforeEach
+    void setUp() throws Exception {
+        responder = new DatagramSocket(0);
+        responderThread = new Thread(() -> {
+            byte[] buffer = new byte[64];
+            try {
+                while (true) {
+                    DatagramPacket probe = new DatagramPacket(buffer, buffer.length);
+                    responder.receive(probe);
+                    for (String reply : List.of("10.0.0.1,AA,AK001", "10.0.0.2,BB,AK001", "10.0.0.2,BB,AK001", "10.0.0.3,CC,")) {
+                        byte[] bytes = reply.getBytes(StandardCharsets.US_ASCII);
+                        responder.send(new DatagramPacket(bytes, bytes.length, probe.getSocketAddress()));
+                    }
+                }
+            } catch (Exception e) {
+                // closed
+            }
+        });
+        responderThread.start();
+        prober = new DiscoveryProber(responder.getLocalPort(), "127.0.0.1, 127.0.0.2, nosuchinterface0");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        responder.close();
+        responderThread.join(1000);
+        prober.shutdown();
+    }
+
+    @Test
+    void handsOutEachMacOnce() throws Exception {
+        List<IDevice> found = new CopyOnWriteArrayList<>();
+        int count = prober.probe(InetAddress.getLoopbackAddress(), 300, found::add).get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, count);
+        assertEquals(List.of("AA", "BB", "CC"), found.stream().map(IDevice::getMac).toList());
+        assertEquals("CC", found.get(2).getName());
+    }
+
+    @Test
+    void stopsAsSoonAsCallbackDeclines() throws Exception {
+        long start = System.currentTimeMillis();
+        int count = prober.probe(InetAddress.getLoopbackAddress(), 10000, device -> !"BB".equals(device.getMac()))
+                .get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, count);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    void sweepsTargetsAtOnceAndMergesByMac() throws Exception {
+        List<IDevice> found = new CopyOnWriteArrayList<>();
+        long start = System.currentTimeMillis();
+        DiscoverySweep sweep = prober.sweep(500, found::add).get(5, TimeUnit.SECONDS);
+
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(3, found.size());
+        assertEquals(List.of("AA", "BB", "CC"), List.copyOf(sweep.getDevices().keySet()));
+        assertEquals(3, sweep.getTargets().size());
+        assertEquals(3, sweep.getTargets().get(0).getAnswered());
+        assertEquals(3, sweep.getTargets().get(1).getAnswered());
+        assertNotNull(sweep.getTargets().get(2).getError());
+    }
+
+    @Test
+    void slowCallbackDoesNotHoldUpOtherTargets() throws Exception {
+        CountDownLatch otherDevice = new CountDownLatch(1);
+        AtomicBoolean sawOtherDevice = new AtomicBoolean();
+        prober.sweep(500, device -> {
+            if ("AA".equals(device.getMac())) {
+                // the other target's probe keeps handing out devices meanwhile
+                try {
+                    sawOtherDevice.set(otherDevice.await(2, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                otherDevice.countDown();
+            }
+            return true;
+        }).get(5, TimeUnit.SECONDS);
+
+        assertTrue(sawOtherDevice.get());
+    }
+
+    @Test
+    void ignoresMalformedReplies() {
+        assertNull(DiscoveryProber.parseReply("HF-A11ASSISTHREAD"));
+        assertNull(DiscoveryProber.parseReply(",AA,model"));
+        assertEquals("10.0.0.1", DiscoveryProber.parseReply("10.0.0.1,AA,model\n").getIp());
+        assertEquals("model", DiscoveryProber.parseReply("10.0.0.1,AA,model").getName());
+        assertEquals("AA", DiscoveryProber.parseReply("10.0.0.1,AA,").getName());
+    }
+}
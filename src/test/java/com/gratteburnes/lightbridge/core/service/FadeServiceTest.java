@@ -0,0 +1,127 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.FadeRequest;
+import com.gratteburnes.lightbridge.core.model.RgbWWCWColor;
+import com.gratteburnes.magichome.model.DeviceState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+
+import static com.gratteburnes.lightbridge.core.service.RepositoryFixture.device;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FadeServiceTest {
+    private RepositoryFixture fixture;
+    private FadeService fadeService;
+    // color changes wait until the test completes them
+    private final List<CompletableFuture<Boolean>> sends = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        fixture = new RepositoryFixture(device("192.168.1.10", "5CCF7F000001", "bedroom"));
+        ColorStreamService colorStreamService = new ColorStreamService(fixture.lightbridgeService, fixture.stateCache, fixture.meterRegistry);
+        fadeService = new FadeService(fixture.repository, fixture.stateCache, colorStreamService, fixture.meterRegistry, 100, 60000);
+        // fades start from the last known color, black here
+        fixture.stateCache.put(fixture.repository.findDevice("bedroom"), new DeviceState());
+        fixture.lightbridgeService.commands = ip -> {
+            CompletableFuture<Boolean> send = new CompletableFuture<>();
+            synchronized (sends) {
+                sends.add(send);
+            }
+            return send;
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        fadeService.shutdown();
+        fixture.close();
+    }
+
+    @Test
+    void framesAreSkippedWhileOneIsInFlight() throws Exception {
+        fadeService.start(fade(255, 2000));
+        awaitUntil(() -> skippedFrames() >= 20);
+
+        // the device never answered the first frame, nothing else was sent
+        assertEquals(1, fixture.lightbridgeService.colors.size());
+
+        send(0).complete(true);
+        awaitUntil(() -> fixture.lightbridgeService.colors.size() >= 2);
+        int first = fixture.lightbridgeService.colors.get(0).getRed();
+        int second = fixture.lightbridgeService.colors.get(1).getRed();
+        // the next frame jumps ahead to the current progress instead of replaying the skipped ones
+        assertTrue(second > first + 10, first + " then " + second);
+        assertTrue(fadeService.cancel("bedroom"));
+    }
+
+    @Test
+    void newFadeReplacesTheRunningOne() throws Exception {
+        fixture.lightbridgeService.commands = ip -> CompletableFuture.completedFuture(true);
+        fadeService.start(fade(255, 10000));
+        awaitUntil(() -> !fixture.lightbridgeService.colors.isEmpty());
+
+        // the old fade only gets there after several seconds
+        fadeService.start(fade(200, 0));
+        awaitUntil(() -> lastRed() == 200);
+        int sent = fixture.lightbridgeService.colors.size();
+        Thread.sleep(100);
+
+        // the old fade sends nothing more, the new one ended on its color
+        assertEquals(sent, fixture.lightbridgeService.colors.size());
+        assertEquals(200, lastRed());
+        assertFalse(fadeService.cancel("bedroom"));
+    }
+
+    private int lastRed() {
+        List<RgbWWCWColor> colors = fixture.lightbridgeService.colors;
+        return colors.isEmpty() ? -1 : colors.get(colors.size() - 1).getRed();
+    }
+
+    @Test
+    void cancelStopsTheFade() throws Exception {
+        fixture.lightbridgeService.commands = ip -> CompletableFuture.completedFuture(true);
+        fadeService.start(fade(255, 10000));
+        awaitUntil(() -> !fixture.lightbridgeService.colors.isEmpty());
+
+        assertTrue(fadeService.cancel("bedroom"));
+        assertFalse(fadeService.cancel("bedroom"));
+        Thread.sleep(50);
+        int sent = fixture.lightbridgeService.colors.size();
+        Thread.sleep(100);
+        assertEquals(sent, fixture.lightbridgeService.colors.size());
+    }
+
+    private CompletableFuture<Boolean> send(int index) {
+        synchronized (sends) {
+            return sends.get(index);
+        }
+    }
+
+    private double skippedFrames() {
+        return fixture.meterRegistry.counter("lightbridge.fade.frames.skipped").count();
+    }
+
+    private static FadeRequest fade(int red, long durationMillis) {
+        RgbWWCWColor color = new RgbWWCWColor();
+        color.setRed(red);
+        FadeRequest request = new FadeRequest();
+        request.setTargets(List.of("bedroom"));
+        request.setColor(color);
+        request.setDurationMillis(durationMillis);
+        return request;
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
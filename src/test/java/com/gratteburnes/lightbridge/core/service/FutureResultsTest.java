@@ -0,0 +1,71 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FutureResultsTest {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("results-"));
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void deadlineReturnsWhatArrivedAndCancelsTheRest() throws Exception {
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        Map<String, CompletableFuture<String>> pending = new LinkedHashMap<>();
+        pending.put("fast", CompletableFuture.completedFuture("done"));
+        pending.put("failed", CompletableFuture.failedFuture(new IllegalStateException("gone")));
+        pending.put("slow", slow);
+
+        long start = System.nanoTime();
+        Map<String, String> results = FutureResults.allWithin(pending, 100, key -> key + " missing", executor).get(5, TimeUnit.SECONDS);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100);
+        assertEquals(Map.of("fast", "done", "failed", "failed missing", "slow", "slow missing"), results);
+        assertTrue(slow.isCancelled());
+    }
+
+    @Test
+    void resultsAreAssembledOnTheGivenExecutor() throws Exception {
+        Map<String, CompletableFuture<String>> pending = Map.of("slow", new CompletableFuture<>());
+
+        // not the jdk delay thread that fired the deadline
+        String thread = FutureResults.allWithin(pending, 50, key -> Thread.currentThread().getName(), executor)
+                .get(5, TimeUnit.SECONDS).get("slow");
+
+        assertTrue(thread.startsWith("results-"), thread);
+    }
+
+    @Test
+    void completesAsSoonAsEverythingIsDone() throws Exception {
+        CompletableFuture<String> later = new CompletableFuture<>();
+        CompletableFuture<Map<String, String>> results = FutureResults.allWithin(Map.of("later", later), 10000, key -> "missing", executor);
+        assertFalse(results.isDone());
+
+        later.complete("done");
+        assertEquals(Map.of("later", "done"), results.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void fullExecutorStillAnswers() throws Exception {
+        Map<String, String> results = FutureResults.allWithin(Map.of("fast", CompletableFuture.completedFuture("done")), 1000, key -> "missing",
+                task -> {
+                    throw new RejectedExecutionException("full");
+                }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Map.of("fast", "done"), results);
+    }
+}
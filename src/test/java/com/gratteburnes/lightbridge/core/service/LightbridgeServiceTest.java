@@ -0,0 +1,291 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.gratteburnes.lightbridge.core.model.error.DeviceOfflineException;
+import com.gratteburnes.magichome.model.DeviceState;
+import com.gratteburnes.magichome.model.error.DeviceException;
+import com.gratteburnes.magichome.model.error.MessageException;
+import com.gratteburnes.magichome.service.DiscoveryService;
+import com.gratteburnes.magichome.service.MessageService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LightbridgeServiceTest {
+    private static final String IP = "192.168.1.10";
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DeviceCircuitBreaker circuitBreaker = new DeviceCircuitBreaker(3, 10000, 300000);
+    private final DeviceDispatcher dispatcher = new DeviceDispatcher(meterRegistry, 16, 1000, 1000);
+    private BlockingMessageService messageService;
+    private LightbridgeService service;
+
+    @BeforeEach
+    void setUp() {
+        messageService = new BlockingMessageService();
+        service = service(1, 16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void concurrentQueriesShareOneExchange() throws Exception {
+        CompletableFuture<DeviceState> first = service.queryStateAsync(IP);
+        messageService.awaitCalls(1);
+        CompletableFuture<DeviceState> second = service.queryStateAsync(IP);
+        CompletableFuture<DeviceState> third = service.queryStateAsync(IP);
+
+        DeviceState state = new DeviceState();
+        messageService.answer(state);
+        assertSame(state, first.get(5, TimeUnit.SECONDS));
+        assertSame(state, second.get(5, TimeUnit.SECONDS));
+        assertSame(state, third.get(5, TimeUnit.SECONDS));
+        assertEquals(1, messageService.calls.get());
+        assertEquals(1, queries("issued"));
+        assertEquals(2, queries("collapsed"));
+    }
+
+    @Test
+    void finishedExchangeIsNotJoined() throws Exception {
+        messageService.answer(new DeviceState());
+        service.queryStateAsync(IP).get(5, TimeUnit.SECONDS);
+        messageService.answer(new DeviceState());
+        service.queryStateAsync(IP).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, messageService.calls.get());
+        assertEquals(2, queries("issued"));
+        assertEquals(0, queries("collapsed"));
+    }
+
+    @Test
+    void freshQueryReplacesTheOneInFlight() throws Exception {
+        CompletableFuture<DeviceState> stale = service.queryStateAsync(IP);
+        messageService.awaitCalls(1);
+        CompletableFuture<DeviceState> fresh = service.queryStateAsync(IP, false);
+        // joins the fresh query rather than the one sent before the caller's change
+        CompletableFuture<DeviceState> joined = service.queryStateAsync(IP);
+
+        DeviceState before = new DeviceState();
+        DeviceState after = new DeviceState();
+        messageService.answer(before);
+        assertSame(before, stale.get(5, TimeUnit.SECONDS));
+        messageService.answer(after);
+        assertSame(after, fresh.get(5, TimeUnit.SECONDS));
+        assertSame(after, joined.get(5, TimeUnit.SECONDS));
+        assertEquals(2, messageService.calls.get());
+        assertEquals(2, queries("issued"));
+        assertEquals(1, queries("collapsed"));
+    }
+
+    @Test
+    void cancellingOneCallerLeavesTheOthersWaiting() throws Exception {
+        CompletableFuture<DeviceState> cancelled = service.queryStateAsync(IP);
+        messageService.awaitCalls(1);
+        CompletableFuture<DeviceState> other = service.queryStateAsync(IP);
+
+        cancelled.cancel(true);
+        DeviceState state = new DeviceState();
+        messageService.answer(state);
+        assertSame(state, other.get(5, TimeUnit.SECONDS));
+        assertTrue(cancelled.isCancelled());
+        assertEquals(1, messageService.calls.get());
+    }
+
+    @Test
+    void failedExchangeFailsEveryCaller() throws Exception {
+        CompletableFuture<DeviceState> first = service.queryStateAsync(IP);
+        messageService.awaitCalls(1);
+        CompletableFuture<DeviceState> second = service.queryStateAsync(IP);
+
+        messageService.answer(new DeviceException("bad reply"));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertEquals("bad reply", FutureResults.unwrap(e.getCause()).getMessage());
+        assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, messageService.calls.get());
+    }
+
+    @Test
+    void failedSendIsRetriedOnTheTimer() throws Exception {
+        LightbridgeService retrying = replace(service(3, 16));
+        messageService.answer(new MessageException("no answer"));
+        messageService.answer(new MessageException("no answer"));
+        messageService.answer(true);
+
+        assertTrue(retrying.turnDeviceOnAsync(IP).get(5, TimeUnit.SECONDS));
+        assertEquals(3, messageService.calls.get());
+        assertEquals(2, counter(DeviceIoMetrics.RETRIES));
+        assertEquals(0, counter(DeviceIoMetrics.FAILURES));
+        assertNull(circuitBreaker.getHealthIfTripped(IP));
+        assertEquals(0, circuitBreaker.getHealth(IP).getConsecutiveFailures());
+    }
+
+    @Test
+    void socketErrorIsRetried() throws Exception {
+        LightbridgeService retrying = replace(service(2, 16));
+        messageService.answer(new SocketTimeoutException("timed out"));
+        messageService.answer(true);
+
+        assertTrue(retrying.turnDeviceOffAsync(IP).get(5, TimeUnit.SECONDS));
+        assertEquals(1, counter(DeviceIoMetrics.RETRIES));
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() throws Exception {
+        LightbridgeService retrying = replace(service(2, 16));
+        messageService.answer(new MessageException("no answer"));
+        messageService.answer(new MessageException("still no answer"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> retrying.turnDeviceOnAsync(IP).get(5, TimeUnit.SECONDS));
+        assertEquals("still no answer", FutureResults.unwrap(e.getCause()).getMessage());
+        assertEquals(2, messageService.calls.get());
+        assertEquals(1, counter(DeviceIoMetrics.RETRIES));
+        assertEquals(1, counter(DeviceIoMetrics.FAILURES));
+        // one request, one failure for the breaker however many attempts it took
+        assertEquals(1, circuitBreaker.getHealth(IP).getConsecutiveFailures());
+    }
+
+    @Test
+    void unexpectedReplyIsNotRetried() {
+        LightbridgeService retrying = replace(service(3, 16));
+        messageService.answer(new DeviceException("unknown reply"));
+
+        assertThrows(ExecutionException.class, () -> retrying.queryStateAsync(IP).get(5, TimeUnit.SECONDS));
+        assertEquals(1, messageService.calls.get());
+        assertEquals(0, counter(DeviceIoMetrics.RETRIES));
+        assertEquals(1, counter(DeviceIoMetrics.FAILURES));
+    }
+
+    @Test
+    void openCircuitFailsWithoutReachingTheDevice() {
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.recordFailure(IP, new MessageException("no answer"));
+        }
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> service.turnDeviceOnAsync(IP).get(5, TimeUnit.SECONDS));
+        assertTrue(FutureResults.unwrap(e.getCause()) instanceof DeviceOfflineException);
+        assertEquals(0, messageService.calls.get());
+    }
+
+    @Test
+    void fullIoQueueRejectsWithoutTrippingTheBreaker() throws Exception {
+        LightbridgeService small = replace(service(1, 1));
+        // the only io thread is busy with the first device, the second one takes the only queue slot
+        CompletableFuture<Boolean> busy = small.turnDeviceOnAsync("192.168.1.20");
+        messageService.awaitCalls(1);
+        CompletableFuture<Boolean> queued = small.turnDeviceOnAsync("192.168.1.21");
+        awaitQueued(small, 1);
+
+        for (int i = 0; i < 3; i++) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> small.turnDeviceOnAsync(IP).get(5, TimeUnit.SECONDS));
+            assertTrue(FutureResults.unwrap(e.getCause()) instanceof RejectedExecutionException);
+        }
+        assertTrue(circuitBreaker.allow(IP));
+        assertEquals(0, circuitBreaker.getHealth(IP).getConsecutiveFailures());
+
+        messageService.answer(true);
+        messageService.answer(true);
+        assertTrue(busy.get(5, TimeUnit.SECONDS));
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+    }
+
+    private LightbridgeService replace(LightbridgeService replacement) {
+        service.shutdown();
+        service = replacement;
+        return replacement;
+    }
+
+    private static void awaitQueued(LightbridgeService service, int count) throws InterruptedException {
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) service.getDeviceIoExecutor();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getQueue().size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, executor.getQueue().size());
+    }
+
+    private double counter(String name) {
+        return meterRegistry.find(name).counters().stream().mapToDouble(Counter::count).sum();
+    }
+
+    private LightbridgeService service(int maxAttempts, int ioQueue) {
+        return new LightbridgeService(new DiscoveryService(), messageService, circuitBreaker, dispatcher,
+                new DiscoveryProber(48899, ""), new DeviceIoMetrics(meterRegistry, false), meterRegistry,
+                1, ioQueue, maxAttempts, 0);
+    }
+
+    private double queries(String outcome) {
+        return meterRegistry.get("lightbridge.state.queries").tag("outcome", outcome).counter().count();
+    }
+
+    /**
+     * Every device call takes the next answer, waiting for it if the test didn't give one yet. An answer is a result
+     * or the exception to throw.
+     */
+    static class BlockingMessageService extends MessageService {
+        final AtomicInteger calls = new AtomicInteger();
+        private final BlockingQueue<Object> answers = new LinkedBlockingQueue<>();
+
+        void answer(Object answer) {
+            answers.add(answer);
+        }
+
+        void awaitCalls(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (calls.get() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(count, calls.get());
+        }
+
+        @Override
+        public boolean turnDeviceOn(String ip) throws MessageException {
+            return (Boolean) next();
+        }
+
+        @Override
+        public boolean turnDeviceOff(String ip) throws MessageException {
+            return (Boolean) next();
+        }
+
+        @Override
+        public DeviceState queryState(String ip) throws MessageException, DeviceException {
+            return (DeviceState) next();
+        }
+
+        private <E extends Exception> Object next() throws E {
+            calls.incrementAndGet();
+            Object answer;
+            try {
+                answer = answers.poll(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            if (answer == null) {
+                throw new IllegalStateException("no answer given");
+            }
+            if (answer instanceof Exception) {
+                throw LightbridgeServiceTest.<E>sneaky((Exception) answer);
+            }
+            return answer;
+        }
+    }
+
+    // lets the fake throw checked exceptions lighthub doesn't declare, like socket errors
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> E sneaky(Exception e) throws E {
+        throw (E) e;
+    }
+}
@@ -0,0 +1,143 @@
+package com.gratteburnes.lightbridge.core.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.lightbridge.core.model.RgbWWCWColor;
+import com.gratteburnes.lightbridge.core.service.persistence.DeviceMutation;
+import com.gratteburnes.lightbridge.core.service.persistence.DeviceStore;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.DeviceState;
+import com.gratteburnes.magichome.model.IDevice;
+import com.gratteburnes.magichome.service.DiscoveryService;
+import com.gratteburnes.magichome.service.MessageService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A repository wired to real collaborators, with an in-memory store and a LightbridgeService whose device calls
+ * answer whatever the test tells them to.
+ */
+public class RepositoryFixture implements AutoCloseable {
+    public final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    public final ObjectMapper objectMapper = new ObjectMapper();
+    public final MemoryStore store;
+    public final DeviceEventService deviceEventService = new DeviceEventService(meterRegistry, 1, 64, 60000);
+    public final DeviceChangeLog changeLog = new DeviceChangeLog(deviceEventService, 1000);
+    public final DeviceCircuitBreaker circuitBreaker = new DeviceCircuitBreaker(3, 10000, 300000);
+    public final DeviceDispatcher dispatcher = new DeviceDispatcher(meterRegistry, 16, 1000, 1000);
+    public final StubLightbridgeService lightbridgeService;
+    public final DeviceStateCache stateCache;
+    public final DeviceRepositoryService repository;
+
+    public RepositoryFixture(IDevice... devices) throws IOException {
+        Map<String, Device> persisted = new TreeMap<>();
+        for (IDevice device : devices) {
+            persisted.put(device.getName() + "_" + device.getMac(), new Device(device));
+        }
+        store = new MemoryStore(devices.length == 0 ? null : persisted);
+        lightbridgeService = new StubLightbridgeService(this);
+        stateCache = new DeviceStateCache(changeLog, meterRegistry, 60000);
+        repository = new DeviceRepositoryService(store, lightbridgeService, new StateQueryService(lightbridgeService, 5000),
+                stateCache, circuitBreaker, changeLog, new DeviceListingCache(objectMapper));
+    }
+
+    public static IDevice device(String ip, String mac, String name) {
+        return new Device().setIp(ip).setMac(mac).setName(name);
+    }
+
+    @Override
+    public void close() {
+        lightbridgeService.shutdown();
+        dispatcher.shutdown();
+        deviceEventService.shutdown();
+    }
+
+    public static class MemoryStore implements DeviceStore {
+        private final Map<String, Device> persisted;
+        public final List<DeviceMutation> mutations = new CopyOnWriteArrayList<>();
+        public volatile boolean failing;
+
+        MemoryStore(Map<String, Device> persisted) {
+            this.persisted = persisted;
+        }
+
+        @Override
+        public Map<String, Device> load() {
+            return persisted;
+        }
+
+        @Override
+        public void persist(List<DeviceMutation> mutations, Map<String, IDevice> snapshot) throws IOException {
+            if (failing) {
+                throw new IOException("disk full");
+            }
+            this.mutations.addAll(mutations);
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    /**
+     * Device calls answer through commands and states, which default to success and an off device, discovery through
+     * discovery, which finds nothing. Every call is recorded as "operation ip", calls for a device without an ip
+     * fail the way the real service does.
+     */
+    public static class StubLightbridgeService extends LightbridgeService {
+        public final List<String> calls = new CopyOnWriteArrayList<>();
+        public final List<RgbWWCWColor> colors = new CopyOnWriteArrayList<>();
+        public volatile Function<String, CompletableFuture<Boolean>> commands = ip -> CompletableFuture.completedFuture(true);
+        public volatile Function<String, CompletableFuture<DeviceState>> states = ip -> CompletableFuture.completedFuture(new DeviceState());
+        public volatile Supplier<Map<String, IDevice>> discovery = Map::of;
+
+        StubLightbridgeService(RepositoryFixture fixture) {
+            super(new DiscoveryService(), new MessageService(), fixture.circuitBreaker, fixture.dispatcher,
+                    new DiscoveryProber(48899, ""), new DeviceIoMetrics(fixture.meterRegistry, false), fixture.meterRegistry,
+                    1, 16, 1, 0);
+        }
+
+        @Override
+        public Map<String, IDevice> discover() {
+            calls.add("discover");
+            return discovery.get();
+        }
+
+        @Override
+        public CompletableFuture<Boolean> turnDeviceOnAsync(String ip) {
+            calls.add("on " + ip);
+            return ip == null ? super.turnDeviceOnAsync(null) : commands.apply(ip);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> turnDeviceOffAsync(String ip) {
+            calls.add("off " + ip);
+            return ip == null ? super.turnDeviceOffAsync(null) : commands.apply(ip);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> changeDeviceColorAsync(int red, int green, int blue, int warmWhite, int coolWhite, String ip) {
+            calls.add("color " + ip);
+            RgbWWCWColor color = new RgbWWCWColor();
+            color.setRed(red);
+            color.setGreen(green);
+            color.setBlue(blue);
+            color.setWarmWhite(warmWhite);
+            color.setCoolWhite(coolWhite);
+            colors.add(color);
+            return ip == null ? super.changeDeviceColorAsync(red, green, blue, warmWhite, coolWhite, null) : commands.apply(ip);
+        }
+
+        @Override
+        public CompletableFuture<DeviceState> queryStateAsync(String ip, boolean joinInFlight) {
+            calls.add("state " + ip);
+            return ip == null ? super.queryStateAsync(null, joinInFlight) : states.apply(ip);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.gratteburnes.lightbridge.core.service.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalDeviceStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private Path snapshotFile;
+    private Path journalFile;
+    private JournalDeviceStore store;
+
+    @BeforeEach
+    void setUp() {
+        snapshotFile = directory.resolve("devices.json");
+        journalFile = directory.resolve("devices.journal");
+        store = newStore(1000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    void loadReturnsNullWhenNothingWasPersisted() throws IOException {
+        assertNull(store.load());
+    }
+
+    @Test
+    void replaysJournalOnTopOfSnapshot() throws IOException {
+        store.load();
+        Map<String, IDevice> devices = new TreeMap<>();
+        put(devices, device("kitchen", "AA"));
+        put(devices, device("hall", "BB"));
+        rename(devices, device("hall", "BB"), device("porch", "BB"));
+        store.close();
+
+        store = newStore(1000);
+        Map<String, Device> loaded = store.load();
+
+        assertEquals(devices.keySet(), loaded.keySet());
+        assertEquals("porch", loaded.get("porch_BB").getName());
+    }
+
+    @Test
+    void recoversFromRecordTruncatedMidWrite() throws IOException {
+        store.load();
+        Map<String, IDevice> devices = new TreeMap<>();
+        put(devices, device("kitchen", "AA"));
+        long intactSize = Files.size(journalFile);
+        put(devices, device("hall", "BB"));
+        store.close();
+
+        // simulate a crash in the middle of the last record
+        try (RandomAccessFile journal = new RandomAccessFile(journalFile.toFile(), "rw")) {
+            journal.setLength(intactSize + (Files.size(journalFile) - intactSize) / 2);
+        }
+
+        store = newStore(1000);
+        Map<String, Device> loaded = store.load();
+        assertEquals(List.of("kitchen_AA"), List.copyOf(loaded.keySet()));
+
+        // the torn tail is gone, so new records are readable after it
+        Map<String, IDevice> recovered = new TreeMap<>(loaded);
+        put(recovered, device("porch", "CC"));
+        store.close();
+        store = newStore(1000);
+        assertEquals(List.of("kitchen_AA", "porch_CC"), List.copyOf(store.load().keySet()));
+    }
+
+    @Test
+    void ignoresRecordWithCorruptPayload() throws IOException {
+        store.load();
+        Map<String, IDevice> devices = new TreeMap<>();
+        put(devices, device("kitchen", "AA"));
+        put(devices, device("hall", "BB"));
+        store.close();
+
+        try (RandomAccessFile journal = new RandomAccessFile(journalFile.toFile(), "rw")) {
+            journal.seek(journal.length() - 2);
+            journal.write('#');
+        }
+
+        store = newStore(1000);
+        assertEquals(List.of("kitchen_AA"), List.copyOf(store.load().keySet()));
+    }
+
+    @Test
+    void compactsJournalIntoSnapshot() throws IOException {
+        store.close();
+        store = newStore(2);
+        store.load();
+        Map<String, IDevice> devices = new TreeMap<>();
+        put(devices, device("kitchen", "AA"));
+        put(devices, device("hall", "BB"));
+
+        assertEquals(0, Files.size(journalFile));
+        assertTrue(Files.isRegularFile(snapshotFile));
+
+        put(devices, device("porch", "CC"));
+        store.close();
+        store = newStore(2);
+        assertEquals(devices.keySet(), store.load().keySet());
+    }
+
+    private JournalDeviceStore newStore(int compactThreshold) {
+        return new JournalDeviceStore(new ObjectMapper(), new SimpleMeterRegistry(), snapshotFile.toString(), journalFile.toString(), compactThreshold, false);
+    }
+
+    private void put(Map<String, IDevice> devices, IDevice device) throws IOException {
+        String key = key(device);
+        devices.put(key, device);
+        store.persist(List.of(DeviceMutation.put(key, device)), devices);
+    }
+
+    private void rename(Map<String, IDevice> devices, IDevice from, IDevice to) throws IOException {
+        devices.remove(key(from));
+        devices.put(key(to), to);
+        store.persist(List.of(DeviceMutation.remove(key(from)), DeviceMutation.put(key(to), to)), devices);
+    }
+
+    private static String key(IDevice device) {
+        return device.getName() + "_" + device.getMac();
+    }
+
+    private static IDevice device(String name, String mac) {
+        return new Device().setName(name).setMac(mac).setIp("192.168.0." + mac.charAt(0));
+    }
+}
@@ -0,0 +1,105 @@
+package com.gratteburnes.lightbridge.core.service.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gratteburnes.magichome.model.Device;
+import com.gratteburnes.magichome.model.IDevice;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonFileDeviceStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private Path blocker;
+    private JsonFileDeviceStore store;
+
+    @BeforeEach
+    void setUp() {
+        // a file where the device file's directory should be makes every write fail until it is removed
+        blocker = directory.resolve("data");
+        // writes behind far enough that only the tests flush, unless a test asks for a store of its own
+        store = store(60000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (Files.isRegularFile(blocker)) {
+            Files.delete(blocker);
+        }
+        store.shutdown();
+    }
+
+    @Test
+    void failedFlushKeepsSnapshotPending() throws IOException {
+        Files.createFile(blocker);
+        store.persist(List.of(), devices("kitchen"));
+        assertThrows(IOException.class, store::flush);
+        assertTrue(store.getFailingSince() > 0);
+        assertNotNull(store.getLastError());
+        assertEquals(1, meterRegistry.counter("lightbridge.persistence.write.failures", "store", "json", "kind", "snapshot").count());
+
+        Files.delete(blocker);
+        store.flush();
+        assertEquals(0, store.getFailingSince());
+        assertNull(store.getLastError());
+        assertEquals(devices("kitchen").keySet(), store.load().keySet());
+    }
+
+    @Test
+    void newerSnapshotSupersedesTheFailedOne() throws IOException {
+        Files.createFile(blocker);
+        store.persist(List.of(), devices("kitchen"));
+        assertThrows(IOException.class, store::flush);
+        store.persist(List.of(), devices("kitchen", "hall"));
+
+        Files.delete(blocker);
+        store.flush();
+        assertEquals(devices("kitchen", "hall").keySet(), store.load().keySet());
+    }
+
+    @Test
+    void scheduledWriteRetriesUntilItSucceeds() throws Exception {
+        store.shutdown();
+        store = store(10);
+        Files.createFile(blocker);
+        store.persist(List.of(), devices("kitchen"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.getFailingSince() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(store.getFailingSince() > 0);
+
+        Files.delete(blocker);
+        while (store.getFailingSince() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, store.getFailingSince());
+        assertEquals(devices("kitchen").keySet(), store.load().keySet());
+    }
+
+    private JsonFileDeviceStore store(long coalesceMillis) {
+        return new JsonFileDeviceStore(new ObjectMapper(), meterRegistry, blocker.resolve("devices.json").toString(), coalesceMillis, 50);
+    }
+
+    private static Map<String, IDevice> devices(String... names) {
+        Map<String, IDevice> devices = new TreeMap<>();
+        for (String name : names) {
+            devices.put(name + "_" + name.toUpperCase(), new Device().setIp(null).setMac(name.toUpperCase()).setName(name));
+        }
+        return devices;
+    }
+}